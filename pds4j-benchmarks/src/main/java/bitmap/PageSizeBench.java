@@ -0,0 +1,104 @@
+package bitmap;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.gridkit.pds4j.bitmap.BitMaps;
+import org.gridkit.pds4j.bitmap.PagedBitMap;
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Latency of bit map access for different page sizes and densities.
+ * Heap footprint of each configuration is printed during setup.
+ */
+@State(Scope.Benchmark)
+public class PageSizeBench {
+
+    public static long RANGE = 1l << 30;
+    public static int PROBES = 1 << 16;
+
+    @Param({"6", "8", "10", "12", "14"})
+    public int pageBits = 10;
+
+    @Param({"true", "false"})
+    public boolean sparse = true;
+
+    /** Bits per million positions */
+    @Param({"10", "1000", "100000"})
+    public int density = 1000;
+
+    private PagedBitMap bitmap;
+    private long[] probes;
+
+    long superTotal = 0;
+
+    @Setup(Level.Trial)
+    public void generateData() {
+        Random rnd = new Random(1);
+        long before = usedMemory();
+        bitmap = sparse ? BitMaps.sparseBitMap(pageBits) : BitMaps.semiSparceBitmap(pageBits);
+        long count = RANGE / 1000000 * density;
+        for(long i = 0; i != count; ++i) {
+            bitmap.set((rnd.nextLong() >>> 1) % RANGE, true);
+        }
+        long after = usedMemory();
+        System.out.println("\nFootprint pageBits=" + pageBits + " sparse=" + sparse + " density=" + density
+                + ": " + ((after - before) >> 10) + " KiB for " + bitmap.countOnes() + " bits");
+        probes = new long[PROBES];
+        for(int i = 0; i != PROBES; ++i) {
+            probes[i] = (rnd.nextLong() >>> 1) % RANGE;
+        }
+    }
+
+    private static long usedMemory() {
+        for(int i = 0; i != 3; ++i) {
+            System.gc();
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void randomGet() {
+        for(long p: probes) {
+            superTotal += bitmap.get(p) ? 1 : 0;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void randomSeek() {
+        for(long p: probes) {
+            superTotal += bitmap.seekOne(p);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void scan() {
+        for(long n = bitmap.seekOne(0); n >= 0; n = bitmap.seekOne(n + 1)) {
+            superTotal += n;
+        }
+    }
+
+    @Test
+    public void test_test() {
+        generateData();
+        randomGet();
+        randomSeek();
+        scan();
+    }
+}
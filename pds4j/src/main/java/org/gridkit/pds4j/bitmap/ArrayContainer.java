@@ -0,0 +1,195 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Sparse chunk, kept as sorted array of 16 bit offsets.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class ArrayContainer extends Container {
+
+    private char[] values;
+    private int size;
+
+    public ArrayContainer(int i) {
+        this.values = new char[4];
+        this.values[0] = (char) i;
+        this.size = 1;
+    }
+
+    ArrayContainer(char[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    static ArrayContainer valueOf(long[] words, int card) {
+        char[] values = new char[card];
+        int n = 0;
+        for(int wi = 0; wi != words.length; ++wi) {
+            long w = words[wi];
+            while(w != 0) {
+                values[n++] = (char) ((wi << 6) + Long.numberOfTrailingZeros(w));
+                w &= w - 1;
+            }
+        }
+        return new ArrayContainer(values, n);
+    }
+
+    @Override
+    protected int kind() {
+        return ARRAY;
+    }
+
+    @Override
+    public int cardinality() {
+        return size;
+    }
+
+    @Override
+    public int runCount() {
+        int runs = size == 0 ? 0 : 1;
+        for(int i = 1; i < size; ++i) {
+            if (values[i] != values[i - 1] + 1) {
+                ++runs;
+            }
+        }
+        return runs;
+    }
+
+    @Override
+    public boolean get(int i) {
+        return Arrays.binarySearch(values, 0, size, (char) i) >= 0;
+    }
+
+    @Override
+    public Container set(int i) {
+        int pos = Arrays.binarySearch(values, 0, size, (char) i);
+        if (pos >= 0) {
+            return this;
+        }
+        if (size == ARRAY_LIMIT) {
+            return new BitmapContainer(toWords(), size).set(i);
+        }
+        pos = -pos - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, 2 * size));
+        }
+        System.arraycopy(values, pos, values, pos + 1, size - pos);
+        values[pos] = (char) i;
+        ++size;
+        return this;
+    }
+
+    @Override
+    public Container clear(int i) {
+        int pos = Arrays.binarySearch(values, 0, size, (char) i);
+        if (pos >= 0) {
+            System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+            --size;
+        }
+        return this;
+    }
+
+    @Override
+    public int seek(int i) {
+        if (i >= CHUNK_SIZE) {
+            return -1;
+        }
+        int pos = Arrays.binarySearch(values, 0, size, (char) i);
+        if (pos >= 0) {
+            return i;
+        }
+        pos = -pos - 1;
+        return pos < size ? values[pos] : -1;
+    }
+
+    @Override
+    public void fill(long[] words) {
+        for(int i = 0; i != size; ++i) {
+            words[values[i] >> 6] |= 1l << values[i];
+        }
+    }
+
+    @Override
+    public Container copy() {
+        return new ArrayContainer(Arrays.copyOf(values, size), size);
+    }
+
+    @Override
+    public Container or(Container that) {
+        if (that instanceof ArrayContainer) {
+            ArrayContainer ac = (ArrayContainer) that;
+            if (size + ac.size <= ARRAY_LIMIT) {
+                char[] result = new char[size + ac.size];
+                int n = 0;
+                int i = 0;
+                int j = 0;
+                while(i < size && j < ac.size) {
+                    char a = values[i];
+                    char b = ac.values[j];
+                    if (a < b) {
+                        result[n++] = a;
+                        ++i;
+                    }
+                    else if (a > b) {
+                        result[n++] = b;
+                        ++j;
+                    }
+                    else {
+                        result[n++] = a;
+                        ++i;
+                        ++j;
+                    }
+                }
+                while(i < size) {
+                    result[n++] = values[i++];
+                }
+                while(j < ac.size) {
+                    result[n++] = ac.values[j++];
+                }
+                return new ArrayContainer(result, n).optimize();
+            }
+        }
+        return super.or(that);
+    }
+
+    @Override
+    public Container and(Container that) {
+        char[] result = new char[size];
+        int n = 0;
+        for(int i = 0; i != size; ++i) {
+            if (that.get(values[i])) {
+                result[n++] = values[i];
+            }
+        }
+        return new ArrayContainer(result, n).optimize();
+    }
+
+    @Override
+    public Container andNot(Container that) {
+        char[] result = new char[size];
+        int n = 0;
+        for(int i = 0; i != size; ++i) {
+            if (!that.get(values[i])) {
+                result[n++] = values[i];
+            }
+        }
+        return new ArrayContainer(result, n).optimize();
+    }
+}
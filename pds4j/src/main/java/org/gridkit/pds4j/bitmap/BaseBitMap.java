@@ -48,27 +48,71 @@ abstract class BaseBitMap implements BitMap {
     }
 
     protected void bitwiseMult(BitMap that) {
-        long nthis = that.seekOne(0);
-        long nthat = that.seekOne(0);
+        long nthis = seekOne(0);
+        long nthat = nthis < 0 ? -1 : that.seekOne(nthis);
         while(nthis >= 0) {
-            if (nthis != nthat) {
+            if (nthat < 0 || nthis < nthat) {
+                // no counterpart in that
                 set(nthis, false);
-            }
-            else {
                 nthis = seekOne(nthis + 1);
-                nthat = that.seekOne(nthat + 1);
-                continue;
             }
-            
-            if (nthat >= 0 && nthis < nthat) {
+            else if (nthis == nthat) {
                 nthis = seekOne(nthis + 1);
+                nthat = nthis < 0 ? -1 : that.seekOne(nthis);
             }
             else {
-                nthat = that.seekOne(nthat + 1);
+                nthat = that.seekOne(nthis);
             }
         }
     }
 
+    protected static void checkRange(long from, long to) {
+        if (from < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + from);
+        }
+        if (from > to) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ")");
+        }
+    }
+
+    @Override
+    public long countOnes(long from, long to) {
+        checkRange(from, to);
+        long n = 0;
+        for(long i = from < to ? seekOne(from) : -1; i >= 0 && i < to; i = seekOne(i + 1)) {
+            ++n;
+        }
+        return n;
+    }
+
+    @Override
+    public void setRange(long from, long to) {
+        checkRange(from, to);
+        for(long i = from; i < to; ++i) {
+            set(i, true);
+        }
+    }
+
+    @Override
+    public void clearRange(long from, long to) {
+        checkRange(from, to);
+        for(long i = from < to ? seekOne(from) : -1; i >= 0 && i < to; i = seekOne(i + 1)) {
+            set(i, false);
+        }
+    }
+
+    @Override
+    public long seekZero(long start) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + start);
+        }
+        long n = start;
+        while(seekOne(n) == n) {
+            ++n;
+        }
+        return n;
+    }
+
     @Override
     public Iterable<Long> ones() {
         return new Iterable<Long>() {
@@ -79,6 +123,57 @@ abstract class BaseBitMap implements BitMap {
         };
     }
 
+    @Override
+    public void forEachOne(BitVisitor visitor) {
+        BitCursor cursor = cursor();
+        while(true) {
+            long n = cursor.next();
+            if (n < 0) {
+                break;
+            }
+            visitor.visit(n);
+        }
+    }
+
+    @Override
+    public BitCursor cursor() {
+        return new SeekerCursor(this);
+    }
+
+    protected static class SeekerCursor implements BitCursor {
+
+        private BitMap bitmap;
+        private long next;
+
+        public SeekerCursor(BitMap bitmap) {
+            this.bitmap = bitmap;
+            this.next = 0;
+        }
+
+        @Override
+        public long next() {
+            if (next < 0) {
+                return -1;
+            }
+            long n = bitmap.seekOne(next);
+            next = n < 0 ? -1 : n + 1;
+            return n;
+        }
+
+        @Override
+        public int next(long[] buffer) {
+            int n = 0;
+            while(n < buffer.length) {
+                long i = next();
+                if (i < 0) {
+                    break;
+                }
+                buffer[n++] = i;
+            }
+            return n;
+        }
+    }
+
     protected static class SeekerIterator implements Iterator<Long> {
     
         private BitMap bitmap;
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per position counter of bit maps, kept as a stack of bit map slices.
+ * Slice <code>s</code> holds bit <code>s</code> of each counter.
+ * <br/>
+ * This is a generalization of {@link BitMap#addWithOverflow(BitMap, BitMap)}
+ * for arbitrary number of levels. {@link #add(BitMap)} increments counters
+ * of all positions set in bit map with a ripple carry over slices,
+ * 64 counters at a time. Queries ({@link #atLeast(long)}, {@link #exactly(long)},
+ * {@link #top()}) compare counters with a constant in the same word parallel manner.
+ * <br/>
+ * Number of slices grows as needed, so <code>N</code> increments
+ * take <code>log2(N) + 1</code> slices at most.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class BitCounter {
+
+    private final boolean sparse;
+    private final List<PagedBitMap> slices = new ArrayList<PagedBitMap>();
+
+    /**
+     * Creates counter with sparse slices.
+     */
+    public BitCounter() {
+        this(true);
+    }
+
+    /**
+     * @param sparse if <code>true</code> slices are backed by {@link SparsePagedLongArray}
+     */
+    public BitCounter(boolean sparse) {
+        this.sparse = sparse;
+    }
+
+    /**
+     * @return number of slices, which is a bit width of largest counter
+     */
+    public int sliceCount() {
+        return slices.size();
+    }
+
+    /**
+     * @return slice with bit <code>s</code> of counters, slice should not be modified
+     */
+    public PagedBitMap slice(int s) {
+        return slices.get(s);
+    }
+
+    /**
+     * @return counter at position
+     */
+    public long get(long index) {
+        long n = 0;
+        for(int s = 0; s != slices.size(); ++s) {
+            if (slices.get(s).get(index)) {
+                n |= 1l << s;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Increments counters of every position set in provided bit map.
+     */
+    public void add(BitMap that) {
+        WordCursor c = new WordCursor(that);
+        long first = c.next();
+        if (first < 0) {
+            return;
+        }
+        LongArray[] arrays = arrays(slices.size());
+        // change in number of set bits of each slice
+        long[] deltas = new long[arrays.length + 1];
+        do {
+            long wi = c.index();
+            long carry = c.word();
+            for(int s = 0; carry != 0; ++s) {
+                if (s == arrays.length) {
+                    // carry out of top slice, new slice is empty so carry stops there
+                    slices.add(new PagedBitMap(sparse));
+                    arrays = arrays(slices.size());
+                }
+                long v = arrays[s].get(wi);
+                arrays[s].set(wi, v ^ carry);
+                deltas[s] += Long.bitCount(v ^ carry) - Long.bitCount(v);
+                carry &= v;
+            }
+        }
+        while(c.next() >= 0);
+        for(int s = 0; s != slices.size(); ++s) {
+            PagedBitMap.updated(slices.get(s), first, deltas[s]);
+        }
+    }
+
+    /**
+     * @return positions with counter greater or equal to <code>k</code>
+     */
+    public PagedBitMap atLeast(long k) {
+        return compare(k, true);
+    }
+
+    /**
+     * @return positions with counter equal to <code>k</code>
+     */
+    public PagedBitMap exactly(long k) {
+        return compare(k, false);
+    }
+
+    /**
+     * @return largest counter, 0 if nothing has been counted
+     */
+    public long maxCount() {
+        LongArray[] arrays = arrays(slices.size());
+        long max = 0;
+        for(long wi = nextWord(arrays, 0); wi >= 0; wi = nextWord(arrays, wi + 1)) {
+            // descend slices, keeping positions with largest prefix so far
+            long candidates = -1l;
+            long wmax = 0;
+            for(int s = arrays.length - 1; s >= 0; --s) {
+                long t = candidates & arrays[s].get(wi);
+                if (t != 0) {
+                    candidates = t;
+                    wmax |= 1l << s;
+                }
+            }
+            max = Math.max(max, wmax);
+        }
+        return max;
+    }
+
+    /**
+     * @return positions with largest counter
+     */
+    public PagedBitMap top() {
+        long max = maxCount();
+        return max == 0 ? newBitMap() : exactly(max);
+    }
+
+    private PagedBitMap compare(long k, boolean orGreater) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Count should be positive: " + k);
+        }
+        PagedBitMap result = newBitMap();
+        int n = slices.size();
+        if (n < 64 && (k >>> n) != 0) {
+            // k is wider than any counter
+            return result;
+        }
+        LongArray out = result.backingArray();
+        LongArray[] arrays = arrays(n);
+        for(long wi = nextWord(arrays, 0); wi >= 0; wi = nextWord(arrays, wi + 1)) {
+            // bit sliced comparison of counters with k, starting from high bit
+            long gt = 0;
+            long eq = -1l;
+            for(int s = n - 1; s >= 0; --s) {
+                long v = arrays[s].get(wi);
+                if (((k >>> s) & 1) != 0) {
+                    eq &= v;
+                }
+                else {
+                    gt |= eq & v;
+                    eq &= ~v;
+                }
+            }
+            long w = orGreater ? gt | eq : eq;
+            if (w != 0) {
+                out.set(wi, w);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Result array is written directly, so number of set bits is counted lazily.
+     */
+    private PagedBitMap newBitMap() {
+        return new PagedBitMap(sparse ? new SparsePagedLongArray() : new PagedLongArray());
+    }
+
+    private LongArray[] arrays(int n) {
+        LongArray[] arrays = new LongArray[n];
+        for(int s = 0; s != n; ++s) {
+            arrays[s] = slices.get(s).backingArray();
+        }
+        return arrays;
+    }
+
+    /**
+     * @return index of first word at or after <code>wi</code> non-zero in any slice or -1
+     */
+    private static long nextWord(LongArray[] arrays, long wi) {
+        long next = -1;
+        for(LongArray a: arrays) {
+            long n = a.seekNext(wi);
+            if (n >= 0 && (next < 0 || n < next)) {
+                next = n;
+            }
+        }
+        return next;
+    }
+}
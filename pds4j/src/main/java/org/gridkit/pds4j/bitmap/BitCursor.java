@@ -0,0 +1,37 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Primitive forward only iterator over set bits of {@link BitMap}.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public interface BitCursor {
+
+    /**
+     * @return index of next set bit or -1 if there are no more
+     */
+    public long next();
+
+    /**
+     * Decodes following set bits into provided buffer.
+     * 
+     * @return number of indexes written to buffer, 0 if there are no more set bits
+     */
+    public int next(long[] buffer);
+
+}
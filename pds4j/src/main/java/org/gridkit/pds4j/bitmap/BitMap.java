@@ -28,8 +28,23 @@ public interface BitMap {
 
     long countOnes();
 
+    /**
+     * @return number of set bits in range <code>[from, to)</code>
+     */
+    long countOnes(long from, long to);
+
     Iterable<Long> ones();
 
+    /**
+     * Calls visitor for each set bit in ascending order, no objects are allocated per bit.
+     */
+    void forEachOne(BitVisitor visitor);
+
+    /**
+     * @return cursor over set bits in ascending order
+     */
+    BitCursor cursor();
+
     void mult(BitMap that);
 
     void sub(BitMap that);
@@ -42,8 +57,23 @@ public interface BitMap {
 
     void set(long index, boolean value);
 
+    /**
+     * Sets bits in range <code>[from, to)</code>.
+     */
+    void setRange(long from, long to);
+
+    /**
+     * Clears bits in range <code>[from, to)</code>.
+     */
+    void clearRange(long from, long to);
+
     long seekOne(long start);
 
+    /**
+     * @return index of first clear bit at or after <code>start</code>
+     */
+    long seekZero(long start);
+
     boolean get(long index);
 
 }
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Binary format for bit maps.
+ * <br/>
+ * All numbers are little endian. Layout is
+ * <pre>
+ * header:    magic (8 bytes), page bits (4 bytes), reserved (4 bytes)
+ * pages:     page count x (page size data words + page size / 64 summary words)
+ * directory: page count x page index (8 bytes), ascending
+ * trailer:   page count (8 bytes), number of ones (8 bytes), magic (8 bytes)
+ * </pre>
+ * Only non-empty pages are written. Pages are stored in the same layout as in memory
+ * (see {@link LongPages}), so {@link SerializedLongArray} serves reads directly from buffer.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+final class BitMapFormat {
+
+    public final static long MAGIC = 0x504453344A425331l; // PDS4JBS1
+    public final static int HEADER_SIZE = 16;
+    public final static int TRAILER_SIZE = 24;
+    public final static int PAGE_BITS = 10;
+
+    private BitMapFormat() {
+    }
+
+    public static void write(BitMap bitmap, WritableByteChannel channel) throws IOException {
+        int pageSize = 1 << PAGE_BITS;
+        int pageWords = LongPages.pageWords(pageSize);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC);
+        header.putInt(PAGE_BITS);
+        header.putInt(0);
+        header.flip();
+        writeFully(channel, header);
+
+        ByteBuffer buffer = ByteBuffer.allocate(8 * pageWords).order(ByteOrder.LITTLE_ENDIAN);
+        long[] page = LongPages.newPage(pageSize);
+        long[] directory = new long[16];
+        int pageCount = 0;
+        long ones = 0;
+        long pageIndex = -1;
+
+        WordCursor cursor = new WordCursor(bitmap);
+        while(true) {
+            long wi = cursor.next();
+            if (pageIndex >= 0 && (wi < 0 || (wi >>> PAGE_BITS) != pageIndex)) {
+                // flush completed page
+                buffer.clear();
+                buffer.asLongBuffer().put(page);
+                writeFully(channel, buffer);
+                Arrays.fill(page, 0);
+                if (pageCount == directory.length) {
+                    directory = Arrays.copyOf(directory, 2 * pageCount);
+                }
+                directory[pageCount++] = pageIndex;
+            }
+            if (wi < 0) {
+                break;
+            }
+            pageIndex = wi >>> PAGE_BITS;
+            long word = cursor.word();
+            LongPages.set(page, pageSize, (int) (wi & (pageSize - 1)), word);
+            ones += Long.bitCount(word);
+        }
+
+        ByteBuffer tail = ByteBuffer.allocate(8 * pageCount + TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i != pageCount; ++i) {
+            tail.putLong(directory[i]);
+        }
+        tail.putLong(pageCount);
+        tail.putLong(ones);
+        tail.putLong(MAGIC);
+        tail.flip();
+        writeFully(channel, tail);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * N-ary union, intersection and threshold over bit maps.
+ * <br/>
+ * All inputs are traversed together page by page (see {@link WordCursor}),
+ * each output page is computed in scratch buffer and written once.
+ * Result is a {@link PagedBitMap} over {@link SparsePagedLongArray},
+ * so inputs may span whole 64 bit range.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+final class BitMapMerge {
+
+    private final static int PAGE_BITS = 10;
+    private final static int PAGE_SIZE = 1 << PAGE_BITS;
+    private final static int PAGE_MASK = PAGE_SIZE - 1;
+
+    private BitMapMerge() {
+    }
+
+    public static PagedBitMap or(Collection<? extends BitMap> bitmaps) {
+        SparsePagedLongArray out = new SparsePagedLongArray();
+        CursorHeap heap = new CursorHeap(bitmaps);
+        while(!heap.isEmpty()) {
+            long pi = heap.peek().index() >>> PAGE_BITS;
+            long end = (pi + 1) << PAGE_BITS;
+            long[] page = out.getPageForWrite(pi);
+            while(!heap.isEmpty() && heap.peek().index() < end) {
+                WordCursor c = heap.poll();
+                do {
+                    int wi = (int) (c.index() & PAGE_MASK);
+                    LongPages.set(page, PAGE_SIZE, wi, page[wi] | c.word());
+                }
+                while(c.next() >= 0 && c.index() < end);
+                heap.add(c);
+            }
+        }
+        return new PagedBitMap(out);
+    }
+
+    public static PagedBitMap and(Collection<? extends BitMap> bitmaps) {
+        SparsePagedLongArray out = new SparsePagedLongArray();
+        if (bitmaps.isEmpty()) {
+            return new PagedBitMap(out);
+        }
+        WordCursor[] cursors = new WordCursor[bitmaps.size()];
+        LongPageArray[] pages = new LongPageArray[bitmaps.size()];
+        int n = 0;
+        for(BitMap bitmap: bitmaps) {
+            cursors[n] = new WordCursor(bitmap);
+            pages[n] = pageArray(bitmap);
+            ++n;
+        }
+        long[] acc = LongPages.newPage(PAGE_SIZE);
+        long[] tmp = LongPages.newPage(PAGE_SIZE);
+        long pi = 0;
+        while(true) {
+            // leapfrog until all inputs have a non-zero word on the same page
+            boolean aligned;
+            do {
+                aligned = true;
+                for(WordCursor c: cursors) {
+                    if (c.index() < (pi << PAGE_BITS) && c.seek(pi << PAGE_BITS) < 0) {
+                        return new PagedBitMap(out);
+                    }
+                    long cp = c.index() >>> PAGE_BITS;
+                    if (cp != pi) {
+                        pi = cp;
+                        aligned = false;
+                    }
+                }
+            }
+            while(!aligned);
+
+            long end = (pi + 1) << PAGE_BITS;
+            for(int i = 0; i != cursors.length; ++i) {
+                if (i == 0) {
+                    load(cursors[0], end, acc);
+                }
+                else if (pages[i] != null) {
+                    LongPages.and(acc, pages[i].getPageForRead(pi), PAGE_SIZE);
+                }
+                else {
+                    load(cursors[i], end, tmp);
+                    LongPages.and(acc, tmp, PAGE_SIZE);
+                    LongPages.clear(tmp, PAGE_SIZE);
+                }
+                if (LongPages.isEmpty(acc, PAGE_SIZE)) {
+                    break;
+                }
+            }
+            if (!LongPages.isEmpty(acc, PAGE_SIZE)) {
+                System.arraycopy(acc, 0, out.getPageForWrite(pi), 0, LongPages.pageWords(PAGE_SIZE));
+                LongPages.clear(acc, PAGE_SIZE);
+            }
+            ++pi;
+        }
+    }
+
+    /**
+     * @return bit map with bits set in at least <code>k</code> of inputs
+     */
+    public static PagedBitMap threshold(int k, Collection<? extends BitMap> bitmaps) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Threshold should be positive: " + k);
+        }
+        if (k == 1) {
+            return or(bitmaps);
+        }
+        if (k == bitmaps.size()) {
+            return and(bitmaps);
+        }
+        SparsePagedLongArray out = new SparsePagedLongArray();
+        if (k > bitmaps.size()) {
+            return new PagedBitMap(out);
+        }
+        // per word counters are kept bit sliced, slice s holds bit s of each counter
+        int sliceCount = 32 - Integer.numberOfLeadingZeros(bitmaps.size());
+        long[][] slices = new long[sliceCount][PAGE_SIZE];
+        long[] touched = new long[PAGE_SIZE >> 6];
+        List<WordCursor> onPage = new ArrayList<WordCursor>();
+        CursorHeap heap = new CursorHeap(bitmaps);
+        while(!heap.isEmpty()) {
+            long pi = heap.peek().index() >>> PAGE_BITS;
+            long end = (pi + 1) << PAGE_BITS;
+            onPage.clear();
+            while(!heap.isEmpty() && heap.peek().index() < end) {
+                onPage.add(heap.poll());
+            }
+            if (onPage.size() < k) {
+                // not enough inputs on this page
+                for(WordCursor c: onPage) {
+                    c.seek(end);
+                    heap.add(c);
+                }
+                continue;
+            }
+            for(WordCursor c: onPage) {
+                do {
+                    int wi = (int) (c.index() & PAGE_MASK);
+                    long carry = c.word();
+                    for(int s = 0; carry != 0; ++s) {
+                        long t = slices[s][wi] & carry;
+                        slices[s][wi] ^= carry;
+                        carry = t;
+                    }
+                    touched[wi >> 6] |= 1l << wi;
+                }
+                while(c.next() >= 0 && c.index() < end);
+                heap.add(c);
+            }
+            long[] page = null;
+            for(int ti = 0; ti != touched.length; ++ti) {
+                long t = touched[ti];
+                while(t != 0) {
+                    int wi = (ti << 6) + Long.numberOfTrailingZeros(t);
+                    // bit sliced comparison of counters with k, starting from high bit
+                    long gt = 0;
+                    long eq = -1l;
+                    for(int s = sliceCount - 1; s >= 0; --s) {
+                        long v = slices[s][wi];
+                        slices[s][wi] = 0;
+                        if (((k >> s) & 1) != 0) {
+                            eq &= v;
+                        }
+                        else {
+                            gt |= eq & v;
+                            eq &= ~v;
+                        }
+                    }
+                    long w = gt | eq;
+                    if (w != 0) {
+                        if (page == null) {
+                            page = out.getPageForWrite(pi);
+                        }
+                        LongPages.set(page, PAGE_SIZE, wi, w);
+                    }
+                    t &= t - 1;
+                }
+                touched[ti] = 0;
+            }
+        }
+        return new PagedBitMap(out);
+    }
+
+    private static void load(WordCursor c, long end, long[] page) {
+        while(c.index() >= 0 && c.index() < end) {
+            LongPages.set(page, PAGE_SIZE, (int) (c.index() & PAGE_MASK), c.word());
+            c.next();
+        }
+    }
+
+    private static LongPageArray pageArray(BitMap bitmap) {
+        if (bitmap instanceof LongArrayBackedBitMap) {
+            LongArray array = ((LongArrayBackedBitMap) bitmap).backingArray();
+            if (array instanceof LongPageArray && ((LongPageArray) array).getPageBits() == PAGE_BITS) {
+                return (LongPageArray) array;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Min heap of cursors ordered by current word, exhausted cursors are dropped.
+     */
+    private static class CursorHeap {
+
+        private WordCursor[] heap;
+        private int size;
+
+        public CursorHeap(Collection<? extends BitMap> bitmaps) {
+            heap = new WordCursor[bitmaps.size()];
+            for(BitMap bitmap: bitmaps) {
+                WordCursor c = new WordCursor(bitmap);
+                c.next();
+                add(c);
+            }
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public WordCursor peek() {
+            return heap[0];
+        }
+
+        public void add(WordCursor c) {
+            if (c.index() < 0) {
+                return;
+            }
+            int i = size++;
+            while(i > 0) {
+                int parent = (i - 1) >> 1;
+                if (heap[parent].index() <= c.index()) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = c;
+        }
+
+        public WordCursor poll() {
+            WordCursor top = heap[0];
+            WordCursor last = heap[--size];
+            heap[size] = null;
+            if (size > 0) {
+                int i = 0;
+                while(true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && heap[child + 1].index() < heap[child].index()) {
+                        ++child;
+                    }
+                    if (heap[child].index() >= last.index()) {
+                        break;
+                    }
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = last;
+            }
+            return top;
+        }
+    }
+}
@@ -15,7 +15,14 @@
  */
 package org.gridkit.pds4j.bitmap;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.BitSet;
+import java.util.Collection;
 
 /**
  * Static factory for bitmap structures.
@@ -27,7 +34,56 @@ public class BitMaps {
     public static BitMap wrap(BitSet bitSet) {        
         return new BitSetAdapter(bitSet);
     }
+
+    /**
+     * Copies bit map into new {@link BitSet} a word at a time.
+     * All set bits should be below {@link Integer#MAX_VALUE}.
+     */
+    public static BitSet toBitSet(BitMap bitmap) {
+        if (bitmap instanceof BitSetAdapter) {
+            return (BitSet) ((BitSetAdapter) bitmap).bitSet().clone();
+        }
+        return BitSets.toBitSet(bitmap, Long.MAX_VALUE);
+    }
+
+    /**
+     * Copies {@link BitSet} into new array backed {@link PagedBitMap} a word at a time.
+     */
+    public static PagedBitMap valueOf(BitSet bitSet) {
+        long[] words = BitSets.toLongArray(bitSet);
+        PagedLongArray array = new PagedLongArray();
+        for(int i = 0; i != words.length; ++i) {
+            if (words[i] != 0) {
+                array.set(i, words[i]);
+            }
+        }
+        return new PagedBitMap(array);
+    }
     
+    /**
+     * Read only view of bit map serialized by {@link #write(BitMap, OutputStream)}.
+     * Buffer content (from position to limit) is used in place, without deserialization.
+     */
+    public static BitMap wrap(ByteBuffer buffer) {
+        return new PagedBitMap(new SerializedLongArray(buffer));
+    }
+
+    /**
+     * Writes bit map in compact binary format, only non-empty pages are stored.
+     * Result could be used via {@link #wrap(ByteBuffer)}.
+     */
+    public static void write(BitMap bitmap, OutputStream os) throws IOException {
+        BitMapFormat.write(bitmap, Channels.newChannel(os));
+    }
+
+    /**
+     * Writes bit map in compact binary format at current position of channel.
+     * Result could be used via {@link #wrap(ByteBuffer)}, e.g. by mapping the file.
+     */
+    public static void write(BitMap bitmap, FileChannel channel) throws IOException {
+        BitMapFormat.write(bitmap, channel);
+    }
+
     public static BitMap sparseBitMap() {
         return new PagedBitMap(true);
     }
@@ -35,4 +91,93 @@ public class BitMaps {
     public static BitMap semiSparceBitmap() {
         return new PagedBitMap(new PagedLongArray());
     }
+
+    /**
+     * Sparse bit map with custom page size. Page has <code>2^pageBits</code> 64 bit words,
+     * default is 10 (8 KiB). Small pages waste less memory on very sparse sets,
+     * large pages make page directory smaller for dense ranges.
+     * Bulk operations work page at a time only between bit maps with same page size.
+     */
+    public static PagedBitMap sparseBitMap(int pageBits) {
+        return new PagedBitMap(true, pageBits);
+    }
+
+    /**
+     * Array backed bit map with custom page size, see {@link #sparseBitMap(int)}.
+     */
+    public static PagedBitMap semiSparceBitmap(int pageBits) {
+        return new PagedBitMap(false, pageBits);
+    }
+
+    /**
+     * Paged bit map keeping its pages in direct memory.
+     * Use {@link PagedBitMap#release()} to free memory once bit map is not needed.
+     */
+    public static PagedBitMap offHeapBitMap() {
+        return new PagedBitMap(new OffHeapLongArray());
+    }
+
+    /**
+     * Paged bit map keeping its pages in memory mapped file.
+     * Existing file is opened as is, otherwise new bit map is created.
+     * Use {@link PagedBitMap#release()} to flush and close file,
+     * bit map must not be used after that.
+     *
+     * @param sparse use tree page directory to address whole 64 bit range
+     */
+    public static PagedBitMap mappedBitMap(File file, boolean sparse) throws IOException {
+        return new PagedBitMap(new MappedLongArray(file, sparse));
+    }
+
+    /**
+     * Thread safe bit map with lock free updates, see {@link ConcurrentBitMap}.
+     */
+    public static BitMap concurrentBitMap() {
+        return new ConcurrentBitMap();
+    }
+
+    /**
+     * Bit map with adaptive per chunk representation, see {@link ContainerBitMap}.
+     * Preferable for bit sets with few bits per page.
+     */
+    public static BitMap containerBitMap() {
+        return new ContainerBitMap();
+    }
+
+    /**
+     * Read only view of bit map, starting point for lazily evaluated expressions.
+     * See {@link LazyBitMap}.
+     */
+    public static LazyBitMap lazy(BitMap bitmap) {
+        return new LazyBitMap(LazyLongArray.wordsOf(bitmap));
+    }
+
+    /**
+     * Union of all bit maps, computed in single page aligned pass over inputs.
+     */
+    public static PagedBitMap or(Collection<? extends BitMap> bitmaps) {
+        return BitMapMerge.or(bitmaps);
+    }
+
+    /**
+     * Intersection of all bit maps, computed in single page aligned pass over inputs.
+     * Pages absent in any of inputs are skipped.
+     */
+    public static PagedBitMap and(Collection<? extends BitMap> bitmaps) {
+        return BitMapMerge.and(bitmaps);
+    }
+
+    /**
+     * Bits set in at least <code>k</code> of bit maps, computed in single page aligned pass over inputs.
+     */
+    public static PagedBitMap threshold(int k, Collection<? extends BitMap> bitmaps) {
+        return BitMapMerge.threshold(k, bitmaps);
+    }
+
+    /**
+     * Creates read only run length compressed copy of bit map, see {@link CompressedBitMap}.
+     */
+    public static CompressedBitMap compress(BitMap bitmap) {
+        return CompressedBitMap.valueOf(bitmap);
+    }
 }
@@ -17,6 +17,15 @@ package org.gridkit.pds4j.bitmap;
 
 import java.util.BitSet;
 
+/**
+ * {@link BitMap} view of {@link BitSet}.
+ * <br/>
+ * Bulk operations with other bit set use native {@link BitSet} operations,
+ * other bit maps are converted to {@link BitSet} a word at a time first.
+ * Paged bit maps read words of bit set via {@link #words()}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
 class BitSetAdapter extends BaseBitMap implements BitMap {
 
     private final BitSet bitSet;
@@ -25,6 +34,17 @@ class BitSetAdapter extends BaseBitMap implements BitMap {
         this.bitSet = bitSet;
     }
 
+    BitSet bitSet() {
+        return bitSet;
+    }
+
+    /**
+     * @return copy of current words of bit set
+     */
+    LongArray words() {
+        return new WordArray(BitSets.toLongArray(bitSet));
+    }
+
     @Override
     public long countOnes() {
         return bitSet.cardinality();
@@ -32,28 +52,36 @@ class BitSetAdapter extends BaseBitMap implements BitMap {
 
     @Override
     public void mult(BitMap that) {
-        bitwiseMult(that);
+        // bits beyond length of this bit set are irrelevant
+        bitSet.and(BitSets.toBitSet(that, (bitSet.length() + 63) >> 6));
     }
 
     @Override
     public void sub(BitMap that) {
-        bitwiseSub(that);
+        bitSet.andNot(BitSets.toBitSet(that, (bitSet.length() + 63) >> 6));
     }
 
     @Override
     public void addWithOverflow(BitMap that, BitMap overflow) {
-        bitwiseAddWithOverflow(that, overflow);
+        BitSet ts = BitSets.toBitSet(that, Long.MAX_VALUE);
+        BitSet o = (BitSet) bitSet.clone();
+        o.and(ts);
+        bitSet.or(ts);
+        if (!o.isEmpty()) {
+            overflow.add(new BitSetAdapter(o));
+        }
     }
 
     @Override
     public void add(BitMap that) {
-        bitwiseAdd(that);        
+        bitSet.or(BitSets.toBitSet(that, Long.MAX_VALUE));
     }
 
     @Override
     public boolean getAndSet(long index, boolean value) {
         checkIndex(index);
         boolean val = bitSet.get((int)index);
+        bitSet.set((int) index, value);
         return val;
     }
 
@@ -69,15 +97,22 @@ class BitSetAdapter extends BaseBitMap implements BitMap {
         bitSet.set((int) index, value);
     }
 
+    /**
+     * Bit set has no bits beyond int range, so seeking there is not an error.
+     */
     @Override
     public long seekOne(long start) {
-        checkIndex(start);
-        return bitSet.nextSetBit((int) start);
+        if (start < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + start);
+        }
+        return start > Integer.MAX_VALUE ? -1 : bitSet.nextSetBit((int) start);
     }
 
     @Override
     public boolean get(long index) {
-        checkIndex(index);
-        return bitSet.get((int) index);
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + index);
+        }
+        return index > Integer.MAX_VALUE ? false : bitSet.get((int) index);
     }
 }
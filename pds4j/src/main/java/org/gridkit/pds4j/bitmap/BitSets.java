@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Word level conversion between {@link BitSet} and other bit maps.
+ * <br/>
+ * {@link BitSet#toLongArray()} and {@link BitSet#valueOf(long[])}
+ * are available since Java 7 only, so they are invoked reflectively.
+ * On Java 6 words are assembled bit by bit instead.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+final class BitSets {
+
+    // BitSet could hold bits up to Integer.MAX_VALUE
+    public static final long MAX_WORDS = (((long) Integer.MAX_VALUE) >> 6) + 1;
+
+    private static final Method TO_LONG_ARRAY;
+    private static final Method VALUE_OF;
+
+    static {
+        Method toLongArray = null;
+        Method valueOf = null;
+        try {
+            toLongArray = BitSet.class.getMethod("toLongArray");
+            valueOf = BitSet.class.getMethod("valueOf", long[].class);
+        }
+        catch(Exception e) {
+            // pre Java 7
+            toLongArray = null;
+            valueOf = null;
+        }
+        TO_LONG_ARRAY = toLongArray;
+        VALUE_OF = valueOf;
+    }
+
+    private BitSets() {
+    }
+
+    /**
+     * @return words of bit set, trailing zero words are omitted
+     */
+    public static long[] toLongArray(BitSet bitSet) {
+        if (TO_LONG_ARRAY != null) {
+            return (long[]) invoke(TO_LONG_ARRAY, bitSet);
+        }
+        long[] words = new long[(bitSet.length() + 63) >> 6];
+        for(int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+            words[i >> 6] |= 1l << i;
+        }
+        return words;
+    }
+
+    public static BitSet valueOf(long[] words) {
+        if (VALUE_OF != null) {
+            return (BitSet) invoke(VALUE_OF, null, words);
+        }
+        BitSet bitSet = new BitSet(words.length << 6);
+        for(int wi = 0; wi != words.length; ++wi) {
+            long word = words[wi];
+            while(word != 0) {
+                bitSet.set((wi << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return bitSet;
+    }
+
+    /**
+     * Copies words of bit map below <code>wordLimit</code> into new {@link BitSet}.
+     * Bit set wrapped by {@link BitMaps#wrap(BitSet)} is returned as is.
+     */
+    public static BitSet toBitSet(BitMap bitmap, long wordLimit) {
+        if (bitmap instanceof BitSetAdapter) {
+            return ((BitSetAdapter) bitmap).bitSet();
+        }
+        long[] words = new long[16];
+        int n = 0;
+        WordCursor c = new WordCursor(bitmap);
+        for(long wi = c.next(); wi >= 0 && wi < wordLimit; wi = c.next()) {
+            if (wi >= MAX_WORDS) {
+                throw new IllegalArgumentException("Index out of range for java.util.BitSet " + (wi << 6));
+            }
+            if (wi >= words.length) {
+                words = Arrays.copyOf(words, (int) Math.min(MAX_WORDS, Math.max(wi + 1, 2l * words.length)));
+            }
+            words[(int) wi] = c.word();
+            n = (int) wi + 1;
+        }
+        return valueOf(n == words.length ? words : Arrays.copyOf(words, n));
+    }
+
+    private static Object invoke(Method m, Object target, Object... args) {
+        try {
+            return m.invoke(target, args);
+        }
+        catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+        catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            else {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
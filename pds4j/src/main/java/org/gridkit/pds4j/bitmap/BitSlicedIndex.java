@@ -0,0 +1,318 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bit sliced index, keeps non-negative integer value per position.
+ * <br/>
+ * Value is stored as a stack of bit map slices, slice <code>s</code>
+ * holds bit <code>s</code> of each value, and existence bit map
+ * marks positions having a value (including zero).
+ * <br/>
+ * Range predicates compare all values of a 64 bit word with a constant
+ * in one pass over slices, so cost is proportional to number of
+ * non-zero words times bit width of values. Results are plain
+ * {@link PagedBitMap}s which could be combined with other filters.
+ * Aggregates ({@link #sum(BitMap)}, {@link #min(BitMap)}, {@link #max(BitMap)})
+ * are computed from bit counts of slices.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class BitSlicedIndex {
+
+    private final boolean sparse;
+    private final PagedBitMap existence;
+    private final List<PagedBitMap> slices = new ArrayList<PagedBitMap>();
+
+    /**
+     * Creates index with sparse slices.
+     */
+    public BitSlicedIndex() {
+        this(true);
+    }
+
+    /**
+     * @param sparse if <code>true</code> slices are backed by {@link SparsePagedLongArray}
+     */
+    public BitSlicedIndex(boolean sparse) {
+        this.sparse = sparse;
+        this.existence = new PagedBitMap(sparse);
+    }
+
+    /**
+     * @return positions having a value, bit map should not be modified
+     */
+    public PagedBitMap existence() {
+        return existence;
+    }
+
+    /**
+     * @return number of slices, which is a bit width of largest value
+     */
+    public int sliceCount() {
+        return slices.size();
+    }
+
+    /**
+     * @return slice with bit <code>s</code> of values, slice should not be modified
+     */
+    public PagedBitMap slice(int s) {
+        return slices.get(s);
+    }
+
+    public void set(long index, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        int width = 64 - Long.numberOfLeadingZeros(value);
+        while(slices.size() < width) {
+            slices.add(new PagedBitMap(sparse));
+        }
+        for(int s = 0; s != slices.size(); ++s) {
+            slices.get(s).set(index, ((value >>> s) & 1) != 0);
+        }
+        existence.set(index, true);
+    }
+
+    /**
+     * @return value at position or -1 if position has no value
+     */
+    public long get(long index) {
+        if (!existence.get(index)) {
+            return -1;
+        }
+        long value = 0;
+        for(int s = 0; s != slices.size(); ++s) {
+            if (slices.get(s).get(index)) {
+                value |= 1l << s;
+            }
+        }
+        return value;
+    }
+
+    public void remove(long index) {
+        for(PagedBitMap slice: slices) {
+            slice.set(index, false);
+        }
+        existence.set(index, false);
+    }
+
+    /**
+     * @return positions with value <code>&lt; v</code>
+     */
+    public PagedBitMap lessThan(long v) {
+        return v <= 0 ? newBitMap() : between(0, v - 1);
+    }
+
+    /**
+     * @return positions with value <code>&lt;= v</code>
+     */
+    public PagedBitMap lessOrEqual(long v) {
+        return v < 0 ? newBitMap() : between(0, v);
+    }
+
+    /**
+     * @return positions with value <code>&gt; v</code>
+     */
+    public PagedBitMap greaterThan(long v) {
+        return v == Long.MAX_VALUE ? newBitMap() : between(Math.max(0, v + 1), Long.MAX_VALUE);
+    }
+
+    /**
+     * @return positions with value <code>&gt;= v</code>
+     */
+    public PagedBitMap greaterOrEqual(long v) {
+        return between(Math.max(0, v), Long.MAX_VALUE);
+    }
+
+    /**
+     * @return positions with value <code>== v</code>
+     */
+    public PagedBitMap equalTo(long v) {
+        return between(v, v);
+    }
+
+    /**
+     * @return positions with value in <code>[from, to]</code> range, both ends inclusive
+     */
+    public PagedBitMap between(long from, long to) {
+        PagedBitMap result = newBitMap();
+        if (from > to || to < 0) {
+            return result;
+        }
+        from = Math.max(0, from);
+        int n = slices.size();
+        if (n < 63 && (from >>> n) != 0) {
+            // from is wider than any value
+            return result;
+        }
+        LongArray out = result.backingArray();
+        LongArray ea = existence.backingArray();
+        LongArray[] arrays = arrays();
+        for(long wi = ea.seekNext(0); wi >= 0; wi = ea.seekNext(wi + 1)) {
+            long exists = ea.get(wi);
+            long w = compare(arrays, wi, exists, from, true) & compare(arrays, wi, exists, to, false);
+            if (w != 0) {
+                out.set(wi, w);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Bit sliced comparison of values in a word with a constant, starting from high bit.
+     * @return mask of values <code>&gt;= c</code> or <code>&lt;= c</code>
+     */
+    private static long compare(LongArray[] arrays, long wi, long exists, long c, boolean greater) {
+        if (arrays.length < 63 && (c >>> arrays.length) != 0) {
+            // c is wider than any value
+            return greater ? 0 : exists;
+        }
+        long gt = 0;
+        long lt = 0;
+        long eq = exists;
+        for(int s = arrays.length - 1; s >= 0 && eq != 0; --s) {
+            long v = arrays[s].get(wi);
+            if (((c >>> s) & 1) != 0) {
+                lt |= eq & ~v;
+                eq &= v;
+            }
+            else {
+                gt |= eq & v;
+                eq &= ~v;
+            }
+        }
+        return (greater ? gt : lt) | eq;
+    }
+
+    /**
+     * @return number of positions having a value
+     */
+    public long count() {
+        return existence.countOnes();
+    }
+
+    /**
+     * @return sum of all values
+     */
+    public long sum() {
+        long sum = 0;
+        for(int s = 0; s != slices.size(); ++s) {
+            sum += slices.get(s).countOnes() << s;
+        }
+        return sum;
+    }
+
+    /**
+     * @return sum of values at positions set in filter
+     */
+    public long sum(BitMap filter) {
+        LongArray fa = LazyLongArray.wordsOf(filter);
+        long sum = 0;
+        for(int s = 0; s != slices.size(); ++s) {
+            LongArray a = new LazyLongArray.And(slices.get(s).backingArray(), fa);
+            long n = 0;
+            for(long wi = a.seekNext(0); wi >= 0; wi = a.seekNext(wi + 1)) {
+                n += Long.bitCount(a.get(wi));
+            }
+            sum += n << s;
+        }
+        return sum;
+    }
+
+    /**
+     * @return smallest value or -1 if there are no values
+     */
+    public long min() {
+        return min(existence);
+    }
+
+    /**
+     * @return smallest value at positions set in filter or -1 if there are no such values
+     */
+    public long min(BitMap filter) {
+        return extreme(filter, false);
+    }
+
+    /**
+     * @return largest value or -1 if there are no values
+     */
+    public long max() {
+        return max(existence);
+    }
+
+    /**
+     * @return largest value at positions set in filter or -1 if there are no such values
+     */
+    public long max(BitMap filter) {
+        return extreme(filter, true);
+    }
+
+    /**
+     * Descends slices from high bit, narrowing candidates to
+     * positions having (for max) or lacking (for min) the bit, if there are any.
+     */
+    private long extreme(BitMap filter, boolean max) {
+        PagedBitMap candidates = newBitMap();
+        candidates.add(existence);
+        if (filter != existence) {
+            candidates.mult(filter);
+        }
+        if (candidates.countOnes() == 0) {
+            return -1;
+        }
+        long value = 0;
+        for(int s = slices.size() - 1; s >= 0; --s) {
+            PagedBitMap next = newBitMap();
+            next.add(candidates);
+            if (max) {
+                next.mult(slices.get(s));
+            }
+            else {
+                next.sub(slices.get(s));
+            }
+            if (next.countOnes() != 0) {
+                candidates = next;
+                if (max) {
+                    value |= 1l << s;
+                }
+            }
+            else if (!max) {
+                // all candidates have this bit
+                value |= 1l << s;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Result array is written directly, so number of set bits is counted lazily.
+     */
+    private PagedBitMap newBitMap() {
+        return new PagedBitMap(sparse ? new SparsePagedLongArray() : new PagedLongArray());
+    }
+
+    private LongArray[] arrays() {
+        LongArray[] arrays = new LongArray[slices.size()];
+        for(int s = 0; s != arrays.length; ++s) {
+            arrays[s] = slices.get(s).backingArray();
+        }
+        return arrays;
+    }
+}
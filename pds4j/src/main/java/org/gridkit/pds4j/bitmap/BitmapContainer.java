@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Dense chunk, kept as plain bitmap.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class BitmapContainer extends Container {
+
+    private final long[] words;
+    private int cardinality;
+
+    BitmapContainer(long[] words, int cardinality) {
+        this.words = words;
+        this.cardinality = cardinality;
+    }
+
+    @Override
+    protected int kind() {
+        return BITMAP;
+    }
+
+    @Override
+    public int cardinality() {
+        return cardinality;
+    }
+
+    @Override
+    public int runCount() {
+        return runCount(words);
+    }
+
+    @Override
+    public boolean get(int i) {
+        return 0 != (words[i >> 6] & (1l << i));
+    }
+
+    @Override
+    public Container set(int i) {
+        long w = words[i >> 6];
+        if (0 == (w & (1l << i))) {
+            words[i >> 6] = w | (1l << i);
+            ++cardinality;
+        }
+        return this;
+    }
+
+    @Override
+    public Container clear(int i) {
+        long w = words[i >> 6];
+        if (0 != (w & (1l << i))) {
+            words[i >> 6] = w & ~(1l << i);
+            --cardinality;
+            if (cardinality <= ARRAY_LIMIT) {
+                return ArrayContainer.valueOf(words, cardinality);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public int seek(int i) {
+        return nextOne(words, i);
+    }
+
+    @Override
+    public void fill(long[] words) {
+        for(int i = 0; i != WORDS; ++i) {
+            words[i] |= this.words[i];
+        }
+    }
+
+    @Override
+    public Container copy() {
+        return new BitmapContainer(words.clone(), cardinality);
+    }
+
+    @Override
+    public Container or(Container that) {
+        that.fill(words);
+        return recount();
+    }
+
+    @Override
+    public Container and(Container that) {
+        if (that instanceof BitmapContainer) {
+            long[] other = ((BitmapContainer) that).words;
+            for(int i = 0; i != WORDS; ++i) {
+                words[i] &= other[i];
+            }
+            return recount();
+        }
+        return super.and(that);
+    }
+
+    @Override
+    public Container andNot(Container that) {
+        if (that instanceof BitmapContainer) {
+            long[] other = ((BitmapContainer) that).words;
+            for(int i = 0; i != WORDS; ++i) {
+                words[i] &= ~other[i];
+            }
+            return recount();
+        }
+        else if (that instanceof ArrayContainer) {
+            for(int i = that.seek(0); i >= 0; i = that.seek(i + 1)) {
+                words[i >> 6] &= ~(1l << i);
+            }
+            return recount();
+        }
+        return super.andNot(that);
+    }
+
+    private Container recount() {
+        int card = 0;
+        for(long w: words) {
+            card += Long.bitCount(w);
+        }
+        cardinality = card;
+        return optimize();
+    }
+}
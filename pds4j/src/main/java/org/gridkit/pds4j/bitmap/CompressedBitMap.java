@@ -0,0 +1,476 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Read only bit map using word aligned run length encoding (EWAH).
+ * <br/>
+ * Encoded stream is a sequence of markers, each followed by literal words.
+ * Marker describes a run of clean words (all zeros or all ones) and
+ * number of literal words after it.
+ * <br/>
+ * Boolean operations ({@link #and(CompressedBitMap)}, {@link #or(CompressedBitMap)},
+ * {@link #andNot(CompressedBitMap)}, {@link #xor(CompressedBitMap)}) stream over
+ * encoded words of both operands and produce new bit map, whole runs are
+ * processed in one step.
+ * <br/>
+ * Mutating methods of {@link BitMap} interface throw {@link UnsupportedOperationException}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class CompressedBitMap extends BaseBitMap implements BitMap {
+
+    // marker layout: bit 0 - run bit, bits 1-32 - run length, bits 33-63 - literal count
+    private final static long MAX_RUN = 0xFFFFFFFFl;
+    private final static int MAX_LITERALS = 0x7FFFFFFF;
+
+    private final static int AND = 0;
+    private final static int OR = 1;
+    private final static int AND_NOT = 2;
+    private final static int XOR = 3;
+
+    public static CompressedBitMap valueOf(BitMap bitmap) {
+        Builder builder = new Builder();
+        if (bitmap instanceof LongArrayBackedBitMap) {
+            LongArray array = ((LongArrayBackedBitMap) bitmap).backingArray();
+            long n = array.seekNext(0);
+            while(n >= 0) {
+                builder.addClean(false, n - builder.wordCount);
+                builder.addLiteral(array.get(n));
+                n = array.seekNext(n + 1);
+            }
+        }
+        else {
+            long n = bitmap.seekOne(0);
+            while(n >= 0) {
+                long wi = n >>> 6;
+                long word = 0;
+                while(n >= 0 && (n >>> 6) == wi) {
+                    word |= 1l << n;
+                    n = bitmap.seekOne(n + 1);
+                }
+                builder.addClean(false, wi - builder.wordCount);
+                builder.addLiteral(word);
+            }
+        }
+        return builder.build();
+    }
+
+    private final long[] buffer;
+    private final int size;
+    private final long cardinality;
+
+    // position of each marker in buffer and index of first word it covers
+    private final int[] markerPositions;
+    private final long[] markerWords;
+
+    private CompressedBitMap(long[] buffer, int size, long cardinality, int[] markerPositions, long[] markerWords) {
+        this.buffer = buffer;
+        this.size = size;
+        this.cardinality = cardinality;
+        this.markerPositions = markerPositions;
+        this.markerWords = markerWords;
+    }
+
+    /**
+     * @return number of 64 bit words used by encoded data
+     */
+    public int sizeInWords() {
+        return size;
+    }
+
+    @Override
+    public long countOnes() {
+        return cardinality;
+    }
+
+    @Override
+    public boolean get(long index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + index);
+        }
+        long wi = index >>> 6;
+        int m = findMarker(wi);
+        if (m < 0) {
+            return false;
+        }
+        long marker = buffer[markerPositions[m]];
+        long offs = wi - markerWords[m];
+        if (offs < runLength(marker)) {
+            return runBit(marker);
+        }
+        offs -= runLength(marker);
+        if (offs >= literalCount(marker)) {
+            return false;
+        }
+        return 0 != (buffer[markerPositions[m] + 1 + (int) offs] & (1l << index));
+    }
+
+    @Override
+    public long seekOne(long start) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + start);
+        }
+        long wi = start >>> 6;
+        int m = Math.max(0, findMarker(wi));
+        for(; m < markerPositions.length; ++m) {
+            int pos = markerPositions[m];
+            long marker = buffer[pos];
+            long ws = markerWords[m];
+            long rl = runLength(marker);
+            if (rl > 0 && runBit(marker) && wi < ws + rl) {
+                return wi < ws ? ws << 6 : Math.max(start, ws << 6);
+            }
+            int lc = literalCount(marker);
+            long ls = ws + rl;
+            long skip = Math.max(0, wi - ls);
+            if (skip >= lc) {
+                // whole marker is before start
+                continue;
+            }
+            for(int i = (int) skip; i < lc; ++i) {
+                long word = buffer[pos + 1 + i];
+                long w = ls + i;
+                if (w == wi) {
+                    word &= -1l << start;
+                }
+                if (word != 0) {
+                    return (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return last marker starting at or before word <code>wi</code> or -1
+     */
+    private int findMarker(long wi) {
+        int m = Arrays.binarySearch(markerWords, wi);
+        if (m < 0) {
+            return -m - 2;
+        }
+        // empty markers may share start word, use last of them
+        while(m + 1 < markerWords.length && markerWords[m + 1] == wi) {
+            ++m;
+        }
+        return m;
+    }
+
+    /**
+     * @return <code>this & that</code>
+     */
+    public CompressedBitMap and(CompressedBitMap that) {
+        return combine(this, that, AND);
+    }
+
+    /**
+     * @return <code>this | that</code>
+     */
+    public CompressedBitMap or(CompressedBitMap that) {
+        return combine(this, that, OR);
+    }
+
+    /**
+     * @return <code>this & ~that</code>
+     */
+    public CompressedBitMap andNot(CompressedBitMap that) {
+        return combine(this, that, AND_NOT);
+    }
+
+    /**
+     * @return <code>this ^ that</code>
+     */
+    public CompressedBitMap xor(CompressedBitMap that) {
+        return combine(this, that, XOR);
+    }
+
+    private static CompressedBitMap combine(CompressedBitMap a, CompressedBitMap b, int op) {
+        Builder builder = new Builder();
+        Cursor ca = new Cursor(a);
+        Cursor cb = new Cursor(b);
+        while(!ca.done() && !cb.done()) {
+            if (ca.inRun() && cb.inRun()) {
+                long n = Math.min(ca.runRemaining, cb.runRemaining);
+                builder.addClean(apply(op, ca.runWord(), cb.runWord()) != 0, n);
+                ca.skipRun(n);
+                cb.skipRun(n);
+            }
+            else if (ca.inRun()) {
+                long c = ca.runWord();
+                ca.skipRun(transfer(builder, cb, ca.runRemaining, apply(op, c, 0), apply(op, c, -1)));
+            }
+            else if (cb.inRun()) {
+                long c = cb.runWord();
+                cb.skipRun(transfer(builder, ca, cb.runRemaining, apply(op, 0, c), apply(op, -1, c)));
+            }
+            else {
+                builder.addLiteral(apply(op, ca.literal(), cb.literal()));
+                ca.nextLiteral();
+                cb.nextLiteral();
+            }
+        }
+        // missing tail is treated as zeros
+        if (!ca.done()) {
+            transfer(builder, ca, Long.MAX_VALUE, apply(op, 0, 0), apply(op, -1, 0));
+        }
+        if (!cb.done()) {
+            transfer(builder, cb, Long.MAX_VALUE, apply(op, 0, 0), apply(op, 0, -1));
+        }
+        return builder.build();
+    }
+
+    private static long apply(int op, long a, long b) {
+        switch(op) {
+            case AND: return a & b;
+            case OR: return a | b;
+            case AND_NOT: return a & ~b;
+            default: return a ^ b;
+        }
+    }
+
+    /**
+     * Copies up to <code>n</code> words from cursor, applying
+     * unary function defined by its values on zero and one words.
+     *
+     * @return number of words consumed from cursor
+     */
+    private static long transfer(Builder builder, Cursor cursor, long n, long f0, long f1) {
+        if (f0 == f1) {
+            // result does not depend on cursor
+            long skipped = cursor.skip(n);
+            // trailing zeros are not stored
+            if (f0 != 0 || n != Long.MAX_VALUE) {
+                builder.addClean(f0 != 0, skipped);
+            }
+            return skipped;
+        }
+        boolean negate = f0 != 0;
+        long copied = 0;
+        while(copied < n && !cursor.done()) {
+            if (cursor.inRun()) {
+                long k = Math.min(n - copied, cursor.runRemaining);
+                builder.addClean(cursor.runBit != negate, k);
+                cursor.skipRun(k);
+                copied += k;
+            }
+            else {
+                builder.addLiteral(negate ? ~cursor.literal() : cursor.literal());
+                cursor.nextLiteral();
+                ++copied;
+            }
+        }
+        return copied;
+    }
+
+    private static boolean runBit(long marker) {
+        return (marker & 1) != 0;
+    }
+
+    private static long runLength(long marker) {
+        return (marker >>> 1) & MAX_RUN;
+    }
+
+    private static int literalCount(long marker) {
+        return (int) (marker >>> 33);
+    }
+
+    private static long marker(boolean runBit, long runLength, int literalCount) {
+        return (runBit ? 1 : 0) | (runLength << 1) | (((long) literalCount) << 33);
+    }
+
+    @Override
+    public void set(long index, boolean value) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public boolean getAndSet(long index, boolean value) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void add(BitMap that) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void addWithOverflow(BitMap that, BitMap overflow) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void sub(BitMap that) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void mult(BitMap that) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    private static class Cursor {
+
+        private final long[] buffer;
+        private final int size;
+        private int pos;
+
+        private boolean runBit;
+        private long runRemaining;
+        private int literalsRemaining;
+
+        public Cursor(CompressedBitMap bitmap) {
+            this.buffer = bitmap.buffer;
+            this.size = bitmap.size;
+            normalize();
+        }
+
+        private void normalize() {
+            while(runRemaining == 0 && literalsRemaining == 0 && pos < size) {
+                long marker = buffer[pos++];
+                runBit = CompressedBitMap.runBit(marker);
+                runRemaining = runLength(marker);
+                literalsRemaining = literalCount(marker);
+            }
+        }
+
+        public boolean done() {
+            return runRemaining == 0 && literalsRemaining == 0;
+        }
+
+        public boolean inRun() {
+            return runRemaining > 0;
+        }
+
+        public long runWord() {
+            return runBit ? -1l : 0l;
+        }
+
+        public long literal() {
+            return buffer[pos];
+        }
+
+        public void nextLiteral() {
+            ++pos;
+            --literalsRemaining;
+            normalize();
+        }
+
+        public void skipRun(long n) {
+            runRemaining -= n;
+            normalize();
+        }
+
+        /**
+         * @return number of words actually skipped
+         */
+        public long skip(long n) {
+            long skipped = 0;
+            while(skipped < n && !done()) {
+                if (inRun()) {
+                    long k = Math.min(n - skipped, runRemaining);
+                    skipRun(k);
+                    skipped += k;
+                }
+                else {
+                    long k = Math.min(n - skipped, literalsRemaining);
+                    pos += k;
+                    literalsRemaining -= k;
+                    skipped += k;
+                    normalize();
+                }
+            }
+            return skipped;
+        }
+    }
+
+    private static class Builder {
+
+        private long[] buffer = new long[16];
+        private int size;
+        private int marker = -1;
+        private int markerCount;
+        private long wordCount;
+        private long cardinality;
+
+        public void addClean(boolean bit, long n) {
+            while(n > 0) {
+                long m = marker < 0 ? 0 : buffer[marker];
+                long rl = runLength(m);
+                if (marker < 0 || literalCount(m) > 0 || (rl > 0 && runBit(m) != bit) || rl == MAX_RUN) {
+                    newMarker();
+                    rl = 0;
+                }
+                long k = Math.min(n, MAX_RUN - rl);
+                buffer[marker] = marker(bit, rl + k, 0);
+                n -= k;
+                wordCount += k;
+                if (bit) {
+                    cardinality += 64 * k;
+                }
+            }
+        }
+
+        public void addLiteral(long word) {
+            if (word == 0) {
+                addClean(false, 1);
+            }
+            else if (word == -1l) {
+                addClean(true, 1);
+            }
+            else {
+                if (marker < 0 || literalCount(buffer[marker]) == MAX_LITERALS) {
+                    newMarker();
+                }
+                long m = buffer[marker];
+                buffer[marker] = marker(runBit(m), runLength(m), literalCount(m) + 1);
+                append(word);
+                ++wordCount;
+                cardinality += Long.bitCount(word);
+            }
+        }
+
+        private void newMarker() {
+            marker = size;
+            ++markerCount;
+            append(0);
+        }
+
+        private void append(long word) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * size);
+            }
+            buffer[size++] = word;
+        }
+
+        public CompressedBitMap build() {
+            int[] positions = new int[markerCount];
+            long[] words = new long[markerCount];
+            int pos = 0;
+            long w = 0;
+            for(int m = 0; m != markerCount; ++m) {
+                positions[m] = pos;
+                words[m] = w;
+                long marker = buffer[pos];
+                w += runLength(marker) + literalCount(marker);
+                pos += 1 + literalCount(marker);
+            }
+            return new CompressedBitMap(Arrays.copyOf(buffer, size), size, cardinality, positions, words);
+        }
+    }
+}
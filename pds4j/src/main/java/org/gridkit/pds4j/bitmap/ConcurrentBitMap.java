@@ -0,0 +1,235 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Thread safe paged bit map.
+ * <br/>
+ * Single bit updates are atomic (CAS on 64 bit words), so
+ * multiple threads could mark bits concurrently without locking.
+ * Bulk operations are atomic per word, but not as a whole.
+ * <br/>
+ * Pages are allocated lazily by {@link ConcurrentLongArray},
+ * whole non-negative 64 bit range is addressable.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class ConcurrentBitMap extends BaseBitMap implements BitMap, LongArrayBackedBitMap {
+
+    private final ConcurrentLongArray array;
+
+    public ConcurrentBitMap() {
+        this.array = new ConcurrentLongArray();
+    }
+
+    @Override
+    public LongArray backingArray() {
+        return array;
+    }
+
+    @Override
+    public boolean get(long index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + index);
+        }
+        return 0 != (array.get(index >>> 6) & (1l << index));
+    }
+
+    @Override
+    public long seekOne(long start) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + start);
+        }
+        long lindex = start >>> 6;
+        long word = array.get(lindex) & (-1l << start);
+        while (word == 0) {
+            lindex = array.seekNext(lindex + 1);
+            if (lindex < 0) {
+                return -1;
+            }
+            // word could be cleared concurrently
+            word = array.get(lindex);
+        }
+        return (lindex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    public void set(long index, boolean value) {
+        getAndSet(index, value);
+    }
+
+    @Override
+    public boolean getAndSet(long index, boolean value) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + index);
+        }
+        long lindex = index >>> 6;
+        long bit = 1l << index;
+        while(true) {
+            long ov = array.get(lindex);
+            long nv = value ? (ov | bit) : (ov & ~bit);
+            if (ov == nv || array.compareAndSet(lindex, ov, nv)) {
+                return 0 != (ov & bit);
+            }
+        }
+    }
+
+    /**
+     * Bitwise <br/>
+     * <code>this = this | that</code>
+     */
+    @Override
+    public void add(BitMap that) {
+        if (that instanceof LongArrayBackedBitMap) {
+            LongArray ta = ((LongArrayBackedBitMap) that).backingArray();
+            long n = 0;
+            while(true) {
+                n = ta.seekNext(n);
+                if (n < 0) {
+                    break;
+                }
+                long w = ta.get(n);
+                while(true) {
+                    long ov = array.get(n);
+                    if ((ov | w) == ov || array.compareAndSet(n, ov, ov | w)) {
+                        break;
+                    }
+                }
+                ++n;
+            }
+        }
+        else {
+            bitwiseAdd(that);
+        }
+    }
+
+    /**
+     * Bitwise <br/>
+     * <code>overflow = this & that</code>
+     * <br/>
+     * <code>this = this | that</code>
+     */
+    @Override
+    public void addWithOverflow(BitMap that, BitMap overflow) {
+        if (that instanceof LongArrayBackedBitMap && overflow instanceof LongArrayBackedBitMap) {
+            LongArray ta = ((LongArrayBackedBitMap) that).backingArray();
+            long n = 0;
+            while(true) {
+                n = ta.seekNext(n);
+                if (n < 0) {
+                    break;
+                }
+                long w = ta.get(n);
+                long ov;
+                while(true) {
+                    ov = array.get(n);
+                    if ((ov | w) == ov || array.compareAndSet(n, ov, ov | w)) {
+                        break;
+                    }
+                }
+                long o = ov & w;
+                long base = n << 6;
+                while(o != 0) {
+                    overflow.set(base + Long.numberOfTrailingZeros(o), true);
+                    o &= o - 1;
+                }
+                ++n;
+            }
+        }
+        else {
+            bitwiseAddWithOverflow(that, overflow);
+        }
+    }
+
+    /**
+     * Bitwise <br/>
+     * <code>this = this & (~that)</code>
+     */
+    @Override
+    public void sub(BitMap that) {
+        if (that instanceof LongArrayBackedBitMap) {
+            LongArray ta = ((LongArrayBackedBitMap) that).backingArray();
+            long n = 0;
+            while(true) {
+                n = ta.seekNext(n);
+                if (n < 0) {
+                    break;
+                }
+                andWord(n, ~ta.get(n));
+                ++n;
+            }
+        }
+        else {
+            bitwiseSub(that);
+        }
+    }
+
+    /**
+     * Bitwise <br/>
+     * <code>this = this & that</code>
+     */
+    @Override
+    public void mult(BitMap that) {
+        if (that instanceof LongArrayBackedBitMap) {
+            LongArray ta = ((LongArrayBackedBitMap) that).backingArray();
+            // walk own words, so words absent in that are cleared too
+            long n = 0;
+            while(true) {
+                n = array.seekNext(n);
+                if (n < 0) {
+                    break;
+                }
+                andWord(n, ta.get(n));
+                ++n;
+            }
+        }
+        else {
+            bitwiseMult(that);
+        }
+    }
+
+    private void andWord(long n, long mask) {
+        while(true) {
+            long ov = array.get(n);
+            if ((ov & mask) == ov || array.compareAndSet(n, ov, ov & mask)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Cursor reads words of backing array directly.
+     */
+    @Override
+    public BitCursor cursor() {
+        return new LongArrayCursor(array);
+    }
+
+    @Override
+    public long countOnes() {
+        long count = 0;
+        long n = 0;
+        while(true) {
+            n = array.seekNext(n);
+            if (n < 0) {
+                break;
+            }
+            count += Long.bitCount(array.get(n));
+            ++n;
+        }
+        return count;
+    }
+}
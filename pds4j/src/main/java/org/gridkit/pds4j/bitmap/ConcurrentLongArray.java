@@ -0,0 +1,211 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread safe {@link LongArray} with lock free page allocation.
+ * <br/>
+ * Pages are kept in fixed depth radix tree, nodes and pages are installed
+ * with CAS, so directory never has to be copied. Tree covers whole
+ * non-negative 64 bit index range.
+ * <br/>
+ * Pages use {@link LongPages} layout, but summary bits are only set and never
+ * cleared (clearing could race with concurrent writer), so summary may point
+ * to zero words, which are skipped by seek.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class ConcurrentLongArray implements LongArray {
+
+    private final static int PAGE_BITS = 10;
+    private final static int PAGE_MASK = ~(-1 << PAGE_BITS);
+    private final static int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private final static int LEVEL_BITS = 12;
+    private final static int LEVEL_MASK = ~(-1 << LEVEL_BITS);
+    private final static int LEVELS = 4;
+
+    public final static long NULL_VALUE = 0;
+
+    private volatile AtomicReferenceArray<Object> root = new AtomicReferenceArray<Object>(1 << LEVEL_BITS);
+
+    public long get(long n) {
+        if (n < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + n);
+        }
+        AtomicLongArray page = getPage(n >>> PAGE_BITS, false);
+        return page == null ? NULL_VALUE : page.get((int) (n & PAGE_MASK));
+    }
+
+    public long seekNext(long start) {
+        if (start < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + start);
+        }
+        long pi = start >>> PAGE_BITS;
+        int wi = (int) (start & PAGE_MASK);
+        AtomicReferenceArray<Object> root = this.root;
+        while(pi >= 0) {
+            AtomicLongArray page = getPage(root, pi, false);
+            if (page != null) {
+                int i = seekNext(page, wi);
+                if (i >= 0) {
+                    return (pi << PAGE_BITS) + i;
+                }
+            }
+            pi = nextPage(root, LEVELS - 1, pi + 1);
+            wi = 0;
+        }
+        return -1;
+    }
+
+    public void set(long n, long value) {
+        if (n < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + n);
+        }
+        AtomicLongArray page = getPage(n >>> PAGE_BITS, value != NULL_VALUE);
+        if (page != null) {
+            int wi = (int) (n & PAGE_MASK);
+            page.set(wi, value);
+            if (value != NULL_VALUE) {
+                markNonZero(page, wi);
+            }
+        }
+    }
+
+    /**
+     * Atomically sets word to <code>update</code> if its current value is <code>expect</code>.
+     */
+    public boolean compareAndSet(long n, long expect, long update) {
+        if (n < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + n);
+        }
+        AtomicLongArray page = getPage(n >>> PAGE_BITS, update != NULL_VALUE);
+        if (page == null) {
+            // absent page reads as zero
+            return expect == NULL_VALUE;
+        }
+        int wi = (int) (n & PAGE_MASK);
+        if (page.compareAndSet(wi, expect, update)) {
+            if (update != NULL_VALUE) {
+                markNonZero(page, wi);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public void release() {
+        root = new AtomicReferenceArray<Object>(1 << LEVEL_BITS);
+    }
+
+    public void compact() {
+        // empty page cannot be dropped without racing with concurrent writers
+    }
+
+    private static void markNonZero(AtomicLongArray page, int wi) {
+        int si = PAGE_SIZE + (wi >> 6);
+        long bit = 1l << wi;
+        while(true) {
+            long s = page.get(si);
+            if ((s & bit) != 0 || page.compareAndSet(si, s, s | bit)) {
+                return;
+            }
+        }
+    }
+
+    private static int seekNext(AtomicLongArray page, int wi) {
+        int se = PAGE_SIZE + (PAGE_SIZE >> 6);
+        int si = PAGE_SIZE + (wi >> 6);
+        long summary = page.get(si) & (-1l << wi);
+        while(true) {
+            while(summary != 0) {
+                int i = ((si - PAGE_SIZE) << 6) + Long.numberOfTrailingZeros(summary);
+                // summary is conservative, check actual word
+                if (page.get(i) != 0) {
+                    return i;
+                }
+                summary &= summary - 1;
+            }
+            if (++si == se) {
+                return -1;
+            }
+            summary = page.get(si);
+        }
+    }
+
+    private AtomicLongArray getPage(long pi, boolean create) {
+        return getPage(root, pi, create);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicLongArray getPage(AtomicReferenceArray<Object> root, long pi, boolean create) {
+        AtomicReferenceArray<Object> node = root;
+        for(int level = LEVELS - 1; level > 0; --level) {
+            int i = (int) (pi >>> (level * LEVEL_BITS)) & LEVEL_MASK;
+            Object child = node.get(i);
+            if (child == null) {
+                if (!create) {
+                    return null;
+                }
+                child = new AtomicReferenceArray<Object>(1 << LEVEL_BITS);
+                if (!node.compareAndSet(i, null, child)) {
+                    child = node.get(i);
+                }
+            }
+            node = (AtomicReferenceArray<Object>) child;
+        }
+        int i = (int) (pi & LEVEL_MASK);
+        Object page = node.get(i);
+        if (page == null && create) {
+            page = new AtomicLongArray(LongPages.pageWords(PAGE_SIZE));
+            if (!node.compareAndSet(i, null, page)) {
+                page = node.get(i);
+            }
+        }
+        return (AtomicLongArray) page;
+    }
+
+    /**
+     * @return index of first allocated page at or after <code>pi</code> under node or -1
+     */
+    @SuppressWarnings("unchecked")
+    private static long nextPage(AtomicReferenceArray<Object> node, int level, long pi) {
+        int shift = level * LEVEL_BITS;
+        if ((pi >>> shift) >>> LEVEL_BITS != 0) {
+            // beyond the range of the node
+            return -1;
+        }
+        long prefix = pi & ~(-1l << shift);
+        for(int i = (int) (pi >>> shift) & LEVEL_MASK; i <= LEVEL_MASK; ++i) {
+            Object child = node.get(i);
+            if (child != null) {
+                long base = ((long) i) << shift;
+                if (level == 0) {
+                    return base;
+                }
+                long n = nextPage((AtomicReferenceArray<Object>) child, level - 1, prefix);
+                if (n >= 0) {
+                    return base | n;
+                }
+            }
+            prefix = 0;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Set of bits in a chunk of 2^16 bits used by {@link ContainerBitMap}.
+ * <br/>
+ * Mutating methods may update receiver in place or return
+ * different container with same content, caller should replace its
+ * reference with returned value. Argument of bulk operations is never modified.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+abstract class Container {
+
+    public final static int CHUNK_BITS = 16;
+    public final static int CHUNK_SIZE = 1 << CHUNK_BITS;
+    public final static int CHUNK_MASK = CHUNK_SIZE - 1;
+    public final static int WORDS = CHUNK_SIZE >> 6;
+
+    /** Above this cardinality sorted array takes more space than a bitmap */
+    public final static int ARRAY_LIMIT = 4096;
+
+    public abstract int cardinality();
+
+    public abstract int runCount();
+
+    public abstract boolean get(int i);
+
+    public abstract Container set(int i);
+
+    public abstract Container clear(int i);
+
+    /**
+     * @return first set bit at or after <code>i</code> or -1,
+     *         -1 if <code>i >= CHUNK_SIZE</code>
+     */
+    public abstract int seek(int i);
+
+    /**
+     * Sets own bits in provided bitmap.
+     */
+    public abstract void fill(long[] words);
+
+    public abstract Container copy();
+
+    public long[] toWords() {
+        long[] words = new long[WORDS];
+        fill(words);
+        return words;
+    }
+
+    public Container or(Container that) {
+        long[] words = toWords();
+        that.fill(words);
+        return fromWords(words);
+    }
+
+    public Container and(Container that) {
+        if (that instanceof ArrayContainer) {
+            return that.and(this);
+        }
+        long[] words = toWords();
+        long[] other = that.toWords();
+        for(int i = 0; i != WORDS; ++i) {
+            words[i] &= other[i];
+        }
+        return fromWords(words);
+    }
+
+    public Container andNot(Container that) {
+        long[] words = toWords();
+        long[] other = that.toWords();
+        for(int i = 0; i != WORDS; ++i) {
+            words[i] &= ~other[i];
+        }
+        return fromWords(words);
+    }
+
+    /**
+     * @return container with same content in the most compact representation
+     */
+    public Container optimize() {
+        int card = cardinality();
+        int best = bestKind(card, runCount());
+        if (best == kind()) {
+            return this;
+        }
+        else {
+            return fromWords(toWords(), card, best);
+        }
+    }
+
+    protected abstract int kind();
+
+    protected final static int ARRAY = 0;
+    protected final static int BITMAP = 1;
+    protected final static int RUNS = 2;
+
+    protected static int bestKind(int card, int runs) {
+        int arrayBytes = card <= ARRAY_LIMIT ? 2 * card : Integer.MAX_VALUE;
+        int bitmapBytes = 8 * WORDS;
+        int runBytes = 4 * runs;
+        if (runBytes < arrayBytes && runBytes < bitmapBytes) {
+            return RUNS;
+        }
+        else if (arrayBytes <= bitmapBytes) {
+            return ARRAY;
+        }
+        else {
+            return BITMAP;
+        }
+    }
+
+    public static Container fromWords(long[] words) {
+        int card = 0;
+        for(long w: words) {
+            card += Long.bitCount(w);
+        }
+        return fromWords(words, card, bestKind(card, runCount(words)));
+    }
+
+    protected static Container fromWords(long[] words, int card, int kind) {
+        switch(kind) {
+            case ARRAY: return ArrayContainer.valueOf(words, card);
+            case RUNS: return RunContainer.valueOf(words);
+            default: return new BitmapContainer(words, card);
+        }
+    }
+
+    protected static int runCount(long[] words) {
+        int runs = 0;
+        long carry = 0;
+        for(long w: words) {
+            // bit starts a run if it is set and previous bit is not
+            runs += Long.bitCount(w & ~((w << 1) | carry));
+            carry = w >>> 63;
+        }
+        return runs;
+    }
+
+    protected static int nextOne(long[] words, int i) {
+        int wi = i >> 6;
+        if (wi >= WORDS) {
+            return -1;
+        }
+        long w = words[wi] & (-1l << i);
+        while(true) {
+            if (w != 0) {
+                return (wi << 6) + Long.numberOfTrailingZeros(w);
+            }
+            if (++wi == WORDS) {
+                return -1;
+            }
+            w = words[wi];
+        }
+    }
+
+    protected static int nextZero(long[] words, int i) {
+        int wi = i >> 6;
+        if (wi >= WORDS) {
+            return CHUNK_SIZE;
+        }
+        long w = ~words[wi] & (-1l << i);
+        while(true) {
+            if (w != 0) {
+                return (wi << 6) + Long.numberOfTrailingZeros(w);
+            }
+            if (++wi == WORDS) {
+                return CHUNK_SIZE;
+            }
+            w = ~words[wi];
+        }
+    }
+
+    /**
+     * Sets bits in range <code>[from, to)</code>.
+     */
+    protected static void fillRange(long[] words, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int fw = from >> 6;
+        int lw = (to - 1) >> 6;
+        long fm = -1l << from;
+        long lm = -1l >>> (-to);
+        if (fw == lw) {
+            words[fw] |= fm & lm;
+        }
+        else {
+            words[fw] |= fm;
+            for(int i = fw + 1; i < lw; ++i) {
+                words[i] = -1l;
+            }
+            words[lw] |= lm;
+        }
+    }
+}
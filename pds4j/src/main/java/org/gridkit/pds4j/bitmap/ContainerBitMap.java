@@ -0,0 +1,286 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Bit map splitting 64 bit space into chunks of 2^16 bits
+ * with adaptive representation for each chunk (Roaring style).
+ * <br/>
+ * Sparse chunks are kept as sorted arrays of offsets, dense
+ * chunks as plain bitmaps, and chunks with long runs of ones as run lists.
+ * Bulk operations choose most compact representation for each resulting chunk,
+ * {@link #optimize()} could be used to repack chunks after series of single bit updates.
+ * <br/>
+ * Unlike {@link PagedBitMap}, a chunk with few bits costs few bytes
+ * instead of whole page.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class ContainerBitMap extends BaseBitMap implements BitMap {
+
+    private long[] keys = new long[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    public ContainerBitMap() {
+    }
+
+    @Override
+    public boolean get(long index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + index);
+        }
+        int pos = find(index >>> Container.CHUNK_BITS);
+        return pos >= 0 && containers[pos].get((int) (index & Container.CHUNK_MASK));
+    }
+
+    @Override
+    public long seekOne(long start) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + start);
+        }
+        long key = start >>> Container.CHUNK_BITS;
+        int pos = find(key);
+        if (pos >= 0) {
+            int n = containers[pos].seek((int) (start & Container.CHUNK_MASK));
+            if (n >= 0) {
+                return (key << Container.CHUNK_BITS) + n;
+            }
+            ++pos;
+        }
+        else {
+            pos = -pos - 1;
+        }
+        // containers are never empty
+        return pos < size ? (keys[pos] << Container.CHUNK_BITS) + containers[pos].seek(0) : -1;
+    }
+
+    @Override
+    public void set(long index, boolean value) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + index);
+        }
+        long key = index >>> Container.CHUNK_BITS;
+        int low = (int) (index & Container.CHUNK_MASK);
+        int pos = find(key);
+        if (value) {
+            if (pos >= 0) {
+                containers[pos] = containers[pos].set(low);
+            }
+            else {
+                insert(-pos - 1, key, new ArrayContainer(low));
+            }
+        }
+        else if (pos >= 0) {
+            Container c = containers[pos].clear(low);
+            if (c.cardinality() == 0) {
+                remove(pos);
+            }
+            else {
+                containers[pos] = c;
+            }
+        }
+    }
+
+    @Override
+    public boolean getAndSet(long index, boolean value) {
+        boolean ov = get(index);
+        if (ov != value) {
+            set(index, value);
+        }
+        return ov;
+    }
+
+    @Override
+    public long countOnes() {
+        long n = 0;
+        for(int i = 0; i != size; ++i) {
+            n += containers[i].cardinality();
+        }
+        return n;
+    }
+
+    /**
+     * Converts each chunk to its most compact representation.
+     */
+    public void optimize() {
+        for(int i = 0; i != size; ++i) {
+            containers[i] = containers[i].optimize();
+        }
+    }
+
+    /**
+     * Bitwise <br/>
+     * <code>this = this | that</code>
+     */
+    @Override
+    public void add(BitMap that) {
+        if (that instanceof ContainerBitMap) {
+            ContainerBitMap cb = (ContainerBitMap) that;
+            long[] nkeys = new long[size + cb.size];
+            Container[] ncontainers = new Container[size + cb.size];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while(i < size || j < cb.size) {
+                long ki = i < size ? keys[i] : Long.MAX_VALUE;
+                long kj = j < cb.size ? cb.keys[j] : Long.MAX_VALUE;
+                if (ki < kj) {
+                    nkeys[n] = ki;
+                    ncontainers[n++] = containers[i++];
+                }
+                else if (ki > kj) {
+                    nkeys[n] = kj;
+                    ncontainers[n++] = cb.containers[j++].copy();
+                }
+                else {
+                    nkeys[n] = ki;
+                    ncontainers[n++] = containers[i++].or(cb.containers[j++]);
+                }
+            }
+            keys = nkeys;
+            containers = ncontainers;
+            size = n;
+        }
+        else {
+            bitwiseAdd(that);
+        }
+    }
+
+    /**
+     * Bitwise <br/>
+     * <code>overflow = this & that</code>
+     * <br/>
+     * <code>this = this | that</code>
+     */
+    @Override
+    public void addWithOverflow(BitMap that, BitMap overflow) {
+        if (that instanceof ContainerBitMap) {
+            ContainerBitMap cb = (ContainerBitMap) that;
+            int i = 0;
+            int j = 0;
+            while(i < size && j < cb.size) {
+                if (keys[i] < cb.keys[j]) {
+                    ++i;
+                }
+                else if (keys[i] > cb.keys[j]) {
+                    ++j;
+                }
+                else {
+                    Container o = containers[i].copy().and(cb.containers[j]);
+                    long base = keys[i] << Container.CHUNK_BITS;
+                    for(int n = o.seek(0); n >= 0; n = o.seek(n + 1)) {
+                        overflow.set(base + n, true);
+                    }
+                    ++i;
+                    ++j;
+                }
+            }
+            add(that);
+        }
+        else {
+            bitwiseAddWithOverflow(that, overflow);
+        }
+    }
+
+    /**
+     * Bitwise <br/>
+     * <code>this = this & (~that)</code>
+     */
+    @Override
+    public void sub(BitMap that) {
+        if (that instanceof ContainerBitMap) {
+            ContainerBitMap cb = (ContainerBitMap) that;
+            int n = 0;
+            int j = 0;
+            for(int i = 0; i != size; ++i) {
+                while(j < cb.size && cb.keys[j] < keys[i]) {
+                    ++j;
+                }
+                Container c = containers[i];
+                if (j < cb.size && cb.keys[j] == keys[i]) {
+                    c = c.andNot(cb.containers[j]);
+                }
+                if (c.cardinality() > 0) {
+                    keys[n] = keys[i];
+                    containers[n++] = c;
+                }
+            }
+            truncate(n);
+        }
+        else {
+            bitwiseSub(that);
+        }
+    }
+
+    /**
+     * Bitwise <br/>
+     * <code>this = this & that</code>
+     */
+    @Override
+    public void mult(BitMap that) {
+        if (that instanceof ContainerBitMap) {
+            ContainerBitMap cb = (ContainerBitMap) that;
+            int n = 0;
+            int j = 0;
+            for(int i = 0; i != size; ++i) {
+                while(j < cb.size && cb.keys[j] < keys[i]) {
+                    ++j;
+                }
+                if (j < cb.size && cb.keys[j] == keys[i]) {
+                    Container c = containers[i].and(cb.containers[j]);
+                    if (c.cardinality() > 0) {
+                        keys[n] = keys[i];
+                        containers[n++] = c;
+                    }
+                }
+            }
+            truncate(n);
+        }
+        else {
+            bitwiseMult(that);
+        }
+    }
+
+    private int find(long key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int pos, long key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(4, 2 * size));
+            containers = Arrays.copyOf(containers, Math.max(4, 2 * size));
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+        keys[pos] = key;
+        containers[pos] = c;
+        ++size;
+    }
+
+    private void remove(int pos) {
+        System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+        System.arraycopy(containers, pos + 1, containers, pos, size - pos - 1);
+        containers[--size] = null;
+    }
+
+    private void truncate(int n) {
+        Arrays.fill(containers, n, size, null);
+        size = n;
+    }
+}
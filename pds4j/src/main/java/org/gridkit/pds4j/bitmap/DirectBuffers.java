@@ -0,0 +1,79 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Explicit deallocation of direct and mapped buffers.
+ * <br/>
+ * There is no public API for that, so cleaner is invoked
+ * reflectively. If neither Java 9+ nor Java 6-8 way is available,
+ * memory is left for garbage collector.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+final class DirectBuffers {
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> uc = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = uc.getMethod("invokeCleaner", ByteBuffer.class);
+            Field f = uc.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+        }
+        catch(Exception e) {
+            // pre Java 9, buffer's own cleaner would be used
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private DirectBuffers() {
+    }
+
+    public static void free(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            }
+            else {
+                Method cm = buffer.getClass().getMethod("cleaner");
+                cm.setAccessible(true);
+                Object cleaner = cm.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        }
+        catch(Exception e) {
+            // ignore, memory would be reclaimed by GC
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Immutable snapshot of a bit map, see {@link PagedBitMap#freeze()}.
+ * <br/>
+ * Only non-zero words are stored, packed into single array
+ * (see {@link FrozenLongArray}), without page directory growth slack.
+ * Instance could be shared between threads without synchronization.
+ * <br/>
+ * Mutating methods of {@link BitMap} interface throw {@link UnsupportedOperationException}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class FrozenBitMap extends BaseBitMap implements BitMap, LongArrayBackedBitMap {
+
+    public static FrozenBitMap valueOf(BitMap bitmap) {
+        LongArray words = bitmap instanceof BitSetAdapter ? ((BitSetAdapter) bitmap).words() : LazyLongArray.wordsOf(bitmap);
+        return new FrozenBitMap(FrozenLongArray.valueOf(words));
+    }
+
+    private final FrozenLongArray words;
+    private final long cardinality;
+
+    private FrozenBitMap(FrozenLongArray words) {
+        this.words = words;
+        long n = 0;
+        for(long i = words.seekNext(0); i >= 0; i = words.seekNext(i + 1)) {
+            n += Long.bitCount(words.get(i));
+        }
+        this.cardinality = n;
+    }
+
+    @Override
+    public LongArray backingArray() {
+        return words;
+    }
+
+    /**
+     * @return mutable copy of this bit map
+     */
+    public PagedBitMap thaw() {
+        PagedBitMap result = new PagedBitMap(true);
+        result.add(this);
+        return result;
+    }
+
+    @Override
+    public boolean get(long index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + index);
+        }
+        return 0 != (words.get(index >>> 6) & (1l << index));
+    }
+
+    @Override
+    public long seekOne(long start) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + start);
+        }
+        long wi = start >>> 6;
+        long word = words.get(wi) & (-1l << start);
+        if (word == 0) {
+            wi = words.seekNext(wi + 1);
+            if (wi < 0) {
+                return -1;
+            }
+            word = words.get(wi);
+        }
+        return (wi << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    public long countOnes() {
+        return cardinality;
+    }
+
+    @Override
+    public BitCursor cursor() {
+        return new LongArrayCursor(words);
+    }
+
+    @Override
+    public void set(long index, boolean value) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public boolean getAndSet(long index, boolean value) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void add(BitMap that) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void addWithOverflow(BitMap that, BitMap overflow) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void sub(BitMap that) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void mult(BitMap that) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Immutable {@link LongArray} with all non-zero words packed into single array.
+ * <br/>
+ * Words are grouped in blocks of 64. For each non-empty block there is
+ * an entry in sorted block index, a mask of its non-zero words and
+ * offset of its first non-zero word in packed array. Position of a word
+ * inside block is a bit count of mask below it, so no space is spent on zero words
+ * and lookups do not chase page references.
+ * <br/>
+ * All state is final and is never modified after construction,
+ * so instance could be shared between threads without synchronization.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class FrozenLongArray implements LongArray {
+
+    public static FrozenLongArray valueOf(LongArray array) {
+        long[] blocks = new long[16];
+        long[] masks = new long[16];
+        int[] offsets = new int[16];
+        long[] words = new long[16];
+        int bn = 0;
+        int wn = 0;
+        for(long n = array.seekNext(0); n >= 0; n = array.seekNext(n + 1)) {
+            long word = array.get(n);
+            if (word == 0) {
+                continue;
+            }
+            long bi = n >>> 6;
+            if (bn == 0 || blocks[bn - 1] != bi) {
+                if (bn == blocks.length) {
+                    blocks = Arrays.copyOf(blocks, 2 * bn);
+                    masks = Arrays.copyOf(masks, 2 * bn);
+                    offsets = Arrays.copyOf(offsets, 2 * bn);
+                }
+                blocks[bn] = bi;
+                offsets[bn] = wn;
+                ++bn;
+            }
+            if (wn == words.length) {
+                if (wn == Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many non-zero words");
+                }
+                words = Arrays.copyOf(words, (int) Math.min(Integer.MAX_VALUE, 2l * wn));
+            }
+            masks[bn - 1] |= 1l << n;
+            words[wn++] = word;
+        }
+        return new FrozenLongArray(Arrays.copyOf(blocks, bn), Arrays.copyOf(masks, bn), Arrays.copyOf(offsets, bn), Arrays.copyOf(words, wn));
+    }
+
+    private final long[] blocks;
+    private final long[] masks;
+    private final int[] offsets;
+    private final long[] words;
+
+    private FrozenLongArray(long[] blocks, long[] masks, int[] offsets, long[] words) {
+        this.blocks = blocks;
+        this.masks = masks;
+        this.offsets = offsets;
+        this.words = words;
+    }
+
+    /**
+     * @return number of non-zero words
+     */
+    public int wordCount() {
+        return words.length;
+    }
+
+    public long get(long n) {
+        if (n < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + n);
+        }
+        int k = Arrays.binarySearch(blocks, n >>> 6);
+        if (k < 0) {
+            return 0;
+        }
+        long bit = 1l << n;
+        long mask = masks[k];
+        return (mask & bit) == 0 ? 0 : words[offsets[k] + Long.bitCount(mask & (bit - 1))];
+    }
+
+    public long seekNext(long start) {
+        if (start < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + start);
+        }
+        int k = Arrays.binarySearch(blocks, start >>> 6);
+        if (k >= 0) {
+            long mask = masks[k] & (-1l << start);
+            if (mask != 0) {
+                return (blocks[k] << 6) + Long.numberOfTrailingZeros(mask);
+            }
+            ++k;
+        }
+        else {
+            k = -k - 1;
+        }
+        // blocks are never empty
+        return k == blocks.length ? -1 : (blocks[k] << 6) + Long.numberOfTrailingZeros(masks[k]);
+    }
+
+    public void set(long n, long value) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    public void release() {
+        // immutable, nothing to release
+    }
+
+    public void compact() {
+        // already compact
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Read only view over expression of other bit maps.
+ * <br/>
+ * Nothing is computed upfront, {@link #get(long)} and {@link #seekOne(long)}
+ * combine words of operands on the fly, so taking first few
+ * matches of an expression does not allocate intermediate bit maps.
+ * Views are composable, e.g. <code>(a & b) | (c & ~d)</code> is
+ * <code>BitMaps.lazy(a).and(b).or(BitMaps.lazy(c).andNot(d))</code>.
+ * <br/>
+ * View reflects current state of operands. Use {@link #materialize()} to
+ * get a mutable copy of result.
+ * Mutating methods of {@link BitMap} interface throw {@link UnsupportedOperationException}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+public class LazyBitMap extends BaseBitMap implements BitMap, LongArrayBackedBitMap {
+
+    private final LongArray words;
+
+    LazyBitMap(LongArray words) {
+        this.words = words;
+    }
+
+    @Override
+    public LongArray backingArray() {
+        return words;
+    }
+
+    public LazyBitMap and(BitMap that) {
+        return new LazyBitMap(new LazyLongArray.And(words, LazyLongArray.wordsOf(that)));
+    }
+
+    public LazyBitMap or(BitMap that) {
+        return new LazyBitMap(new LazyLongArray.Or(words, LazyLongArray.wordsOf(that)));
+    }
+
+    public LazyBitMap andNot(BitMap that) {
+        return new LazyBitMap(new LazyLongArray.AndNot(words, LazyLongArray.wordsOf(that)));
+    }
+
+    public LazyBitMap xor(BitMap that) {
+        return new LazyBitMap(new LazyLongArray.Xor(words, LazyLongArray.wordsOf(that)));
+    }
+
+    /**
+     * Evaluates expression into new sparse {@link PagedBitMap}.
+     */
+    public PagedBitMap materialize() {
+        PagedBitMap result = new PagedBitMap(true);
+        result.add(this);
+        return result;
+    }
+
+    @Override
+    public boolean get(long index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + index);
+        }
+        return 0 != (words.get(index >>> 6) & (1l << index));
+    }
+
+    @Override
+    public long seekOne(long start) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + start);
+        }
+        long wi = start >>> 6;
+        long word = words.get(wi) & (-1l << start);
+        if (word == 0) {
+            wi = words.seekNext(wi + 1);
+            if (wi < 0) {
+                return -1;
+            }
+            word = words.get(wi);
+        }
+        return (wi << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    public long countOnes() {
+        long n = 0;
+        for(long i = words.seekNext(0); i >= 0; i = words.seekNext(i + 1)) {
+            n += Long.bitCount(words.get(i));
+        }
+        return n;
+    }
+
+    @Override
+    public BitCursor cursor() {
+        return new LongArrayCursor(words);
+    }
+
+    @Override
+    public void set(long index, boolean value) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public boolean getAndSet(long index, boolean value) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void add(BitMap that) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void addWithOverflow(BitMap that, BitMap overflow) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void sub(BitMap that) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    @Override
+    public void mult(BitMap that) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Read only {@link LongArray} computing its words on the fly
+ * from words of operand arrays. Used by {@link LazyBitMap}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+abstract class LazyLongArray implements LongArray {
+
+    /**
+     * @return words of bit map, read directly if bit map is backed by {@link LongArray}
+     */
+    public static LongArray wordsOf(BitMap bitmap) {
+        if (bitmap instanceof LongArrayBackedBitMap) {
+            return ((LongArrayBackedBitMap) bitmap).backingArray();
+        }
+        else {
+            return new BitMapWords(bitmap);
+        }
+    }
+
+    public void set(long n, long value) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    public void release() {
+        // nothing to release
+    }
+
+    public void compact() {
+        // nothing to compact
+    }
+
+    static class And extends LazyLongArray {
+
+        private final LongArray a;
+        private final LongArray b;
+
+        public And(LongArray a, LongArray b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        public long get(long n) {
+            return a.get(n) & b.get(n);
+        }
+
+        public long seekNext(long start) {
+            long n = start;
+            while(true) {
+                long x = a.seekNext(n);
+                if (x < 0) {
+                    return -1;
+                }
+                long y = b.seekNext(x);
+                if (y < 0) {
+                    return -1;
+                }
+                if (x == y) {
+                    if ((a.get(x) & b.get(x)) != 0) {
+                        return x;
+                    }
+                    n = x + 1;
+                }
+                else {
+                    n = y;
+                }
+            }
+        }
+    }
+
+    static class Or extends LazyLongArray {
+
+        private final LongArray a;
+        private final LongArray b;
+
+        public Or(LongArray a, LongArray b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        public long get(long n) {
+            return a.get(n) | b.get(n);
+        }
+
+        public long seekNext(long start) {
+            long x = a.seekNext(start);
+            long y = b.seekNext(start);
+            if (x < 0) {
+                return y;
+            }
+            else if (y < 0) {
+                return x;
+            }
+            else {
+                return Math.min(x, y);
+            }
+        }
+    }
+
+    static class AndNot extends LazyLongArray {
+
+        private final LongArray a;
+        private final LongArray b;
+
+        public AndNot(LongArray a, LongArray b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        public long get(long n) {
+            return a.get(n) & ~b.get(n);
+        }
+
+        public long seekNext(long start) {
+            long x = a.seekNext(start);
+            while(x >= 0 && (a.get(x) & ~b.get(x)) == 0) {
+                x = a.seekNext(x + 1);
+            }
+            return x;
+        }
+    }
+
+    static class Xor extends LazyLongArray {
+
+        private final LongArray a;
+        private final LongArray b;
+
+        public Xor(LongArray a, LongArray b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        public long get(long n) {
+            return a.get(n) ^ b.get(n);
+        }
+
+        public long seekNext(long start) {
+            long n = start;
+            while(true) {
+                long x = a.seekNext(n);
+                long y = b.seekNext(n);
+                long m = x < 0 ? y : y < 0 ? x : Math.min(x, y);
+                if (m < 0 || (a.get(m) ^ b.get(m)) != 0) {
+                    return m;
+                }
+                n = m + 1;
+            }
+        }
+    }
+
+    /**
+     * Words of arbitrary bit map, assembled via {@link BitMap#seekOne(long)}.
+     */
+    static class BitMapWords extends LazyLongArray {
+
+        private final BitMap bitmap;
+
+        public BitMapWords(BitMap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        public long get(long n) {
+            long word = 0;
+            long end = (n + 1) << 6;
+            for(long i = bitmap.seekOne(n << 6); i >= 0 && i < end; i = bitmap.seekOne(i + 1)) {
+                word |= 1l << i;
+            }
+            return word;
+        }
+
+        public long seekNext(long start) {
+            long i = bitmap.seekOne(start << 6);
+            return i < 0 ? -1 : i >>> 6;
+        }
+    }
+}
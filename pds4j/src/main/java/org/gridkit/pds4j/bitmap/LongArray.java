@@ -28,5 +28,19 @@ interface LongArray {
     public long get(long n);
     public long seekNext(long start);
     public void set(long n, long value);
+
+    /**
+     * Drops all pages, array remains usable and reads as empty.
+     * Implementations using memory outside of heap free it immediately.
+     * File backed implementation flushes and closes file instead, keeping its content,
+     * such array is closed and any further access throws {@link IllegalStateException}.
+     */
+    public void release();
+
+    /**
+     * Frees empty pages and shrinks page directory.
+     * Implementations which cannot reclaim space (file backed, read only, concurrent) ignore it.
+     */
+    public void compact();
     
 }
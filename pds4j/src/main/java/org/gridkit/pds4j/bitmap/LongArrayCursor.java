@@ -0,0 +1,78 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * {@link BitCursor} decoding words of {@link LongArray} directly.
+ * 
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class LongArrayCursor implements BitCursor {
+
+    private final LongArray array;
+    private long wi = -1;
+    // not yet visited bits of current word
+    private long word;
+
+    public LongArrayCursor(LongArray array) {
+        this.array = array;
+    }
+
+    @Override
+    public long next() {
+        if (word == 0 && !advance()) {
+            return -1;
+        }
+        long n = (wi << 6) + Long.numberOfTrailingZeros(word);
+        word &= word - 1;
+        return n;
+    }
+
+    @Override
+    public int next(long[] buffer) {
+        int n = 0;
+        while(n < buffer.length) {
+            if (word == 0 && !advance()) {
+                break;
+            }
+            long base = wi << 6;
+            long w = word;
+            while(w != 0 && n < buffer.length) {
+                buffer[n++] = base + Long.numberOfTrailingZeros(w);
+                w &= w - 1;
+            }
+            word = w;
+        }
+        return n;
+    }
+
+    private boolean advance() {
+        while(wi != Long.MIN_VALUE) {
+            long next = array.seekNext(wi + 1);
+            if (next < 0) {
+                // end is reached
+                wi = Long.MIN_VALUE;
+                break;
+            }
+            wi = next;
+            word = array.get(next);
+            if (word != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * {@link LongArray} keeping its words in on heap pages
+ * with {@link LongPages} layout and exposing them for page at a time processing.
+ * <br/>
+ * Pages could be shared with snapshots (see {@link #snapshot()}), so page
+ * returned by {@link #getPageForRead(long)} must not be modified,
+ * {@link #getPageForWrite(long)} copies shared page before returning it.
+ * <br/>
+ * Directory methods ({@link #getPageForWrite(long)}, {@link #onPageUpdate(long)})
+ * are not thread safe. Once pages are allocated, distinct pages could be
+ * modified by different threads concurrently.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+interface LongPageArray extends LongArray {
+
+    /**
+     * @return log2 of number of words in page
+     */
+    public int getPageBits();
+
+    /**
+     * @return page or <code>null</code> if page is not allocated
+     */
+    public long[] getPageForRead(long pi);
+
+    /**
+     * @return page which could be modified in place, allocating or copying it if necessary
+     */
+    public long[] getPageForWrite(long pi);
+
+    /**
+     * @return index of first page at or after <code>pi</code> which may have non-zero words or -1
+     */
+    public long seekPage(long pi);
+
+    /**
+     * Should be called after page has been modified directly.
+     */
+    public void onPageUpdate(long pi);
+
+    /**
+     * Creates a copy sharing all pages with this array.
+     * Both arrays copy shared page on first write to it.
+     */
+    public LongPageArray snapshot();
+
+}
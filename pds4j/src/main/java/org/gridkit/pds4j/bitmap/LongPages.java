@@ -0,0 +1,411 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Helpers for pages of {@link PagedLongArray} and {@link SparsePagedLongArray}.
+ * <br/>
+ * Page is a <code>long[]</code> with <code>pageSize</code> data words
+ * followed by summary words. Summary has one bit per non-zero data word,
+ * so next non-zero word could be found by few trailing zero counts
+ * instead of scanning whole page.
+ * <br/>
+ * Bulk kernels work on blocks of 64 words covered by one summary word.
+ * Sparse blocks are visited via summary bits, dense blocks are processed
+ * by unrolled straight loops, summary is rebuilt without branches.
+ * <br/>
+ * Same layout is used for pages kept in {@link ByteBuffer}s,
+ * so each method has a buffer counterpart taking byte offset of the page.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+final class LongPages {
+
+    public final static int DEFAULT_PAGE_BITS = 10;
+    // summary should have at least one word
+    public final static int MIN_PAGE_BITS = 6;
+    public final static int MAX_PAGE_BITS = 24;
+
+    // blocks with at least that many non-zero words are processed by straight loops
+    private final static int DENSE_WORDS = 16;
+
+    private final static AtomicLong OWNERS = new AtomicLong();
+
+    private LongPages() {
+    }
+
+    /**
+     * Heap arrays share pages with their snapshots. Page keeps token
+     * of array allowed to modify it in place, others should copy it first.
+     *
+     * @return new unique owner token
+     */
+    public static long newOwner() {
+        return OWNERS.incrementAndGet();
+    }
+
+    public static void checkPageBits(int pageBits) {
+        if (pageBits < MIN_PAGE_BITS || pageBits > MAX_PAGE_BITS) {
+            throw new IllegalArgumentException("Page bits should be in [" + MIN_PAGE_BITS + ", " + MAX_PAGE_BITS + "] range: " + pageBits);
+        }
+    }
+
+    /**
+     * @return number of words in page including summary
+     */
+    public static int pageWords(int pageSize) {
+        return pageSize + (pageSize >> 6);
+    }
+
+    public static long[] newPage(int pageSize) {
+        return new long[pageWords(pageSize)];
+    }
+
+    public static void set(long[] page, int pageSize, int i, long value) {
+        page[i] = value;
+        int si = pageSize + (i >> 6);
+        if (value == 0) {
+            page[si] &= ~(1l << i);
+        }
+        else {
+            page[si] |= 1l << i;
+        }
+    }
+
+    /**
+     * @return index of first non-zero word at or after <code>i</code> or -1
+     */
+    public static int seekNext(long[] page, int pageSize, int i) {
+        if (i >= pageSize) {
+            return -1;
+        }
+        int se = pageSize + (pageSize >> 6);
+        int si = pageSize + (i >> 6);
+        long summary = page[si] & (-1l << i);
+        while(true) {
+            if (summary != 0) {
+                return ((si - pageSize) << 6) + Long.numberOfTrailingZeros(summary);
+            }
+            if (++si == se) {
+                return -1;
+            }
+            summary = page[si];
+        }
+    }
+
+    public static boolean isEmpty(long[] page, int pageSize) {
+        int se = pageSize + (pageSize >> 6);
+        for(int si = pageSize; si != se; ++si) {
+            if (page[si] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of set bits in page
+     */
+    public static int count(long[] page, int pageSize) {
+        int se = pageSize + (pageSize >> 6);
+        int n = 0;
+        for(int si = pageSize; si != se; ++si) {
+            long summary = page[si];
+            int base = (si - pageSize) << 6;
+            if (Long.bitCount(summary) >= DENSE_WORDS) {
+                n += countBlock(page, base);
+                continue;
+            }
+            while(summary != 0) {
+                n += Long.bitCount(page[base + Long.numberOfTrailingZeros(summary)]);
+                summary &= summary - 1;
+            }
+        }
+        return n;
+    }
+
+    private static int countBlock(long[] page, int base) {
+        int n0 = 0;
+        int n1 = 0;
+        int n2 = 0;
+        int n3 = 0;
+        for(int i = base; i != base + 64; i += 4) {
+            n0 += Long.bitCount(page[i]);
+            n1 += Long.bitCount(page[i + 1]);
+            n2 += Long.bitCount(page[i + 2]);
+            n3 += Long.bitCount(page[i + 3]);
+        }
+        return n0 + n1 + n2 + n3;
+    }
+
+    /**
+     * Bitwise <code>page = page | that</code>, only non-zero words of <code>that</code> are visited.
+     * @return number of bits set in <code>page</code>
+     */
+    public static int or(long[] page, long[] that, int pageSize) {
+        int se = pageSize + (pageSize >> 6);
+        int delta = 0;
+        for(int si = pageSize; si != se; ++si) {
+            long summary = that[si];
+            page[si] |= summary;
+            int base = (si - pageSize) << 6;
+            if (Long.bitCount(summary) >= DENSE_WORDS) {
+                delta += orBlock(page, that, base);
+                continue;
+            }
+            while(summary != 0) {
+                int i = base + Long.numberOfTrailingZeros(summary);
+                delta += Long.bitCount(that[i] & ~page[i]);
+                page[i] |= that[i];
+                summary &= summary - 1;
+            }
+        }
+        return delta;
+    }
+
+    private static int orBlock(long[] page, long[] that, int base) {
+        int delta = 0;
+        for(int i = base; i != base + 64; i += 4) {
+            long a0 = page[i];
+            long a1 = page[i + 1];
+            long a2 = page[i + 2];
+            long a3 = page[i + 3];
+            long b0 = that[i];
+            long b1 = that[i + 1];
+            long b2 = that[i + 2];
+            long b3 = that[i + 3];
+            delta += Long.bitCount(b0 & ~a0) + Long.bitCount(b1 & ~a1) + Long.bitCount(b2 & ~a2) + Long.bitCount(b3 & ~a3);
+            page[i] = a0 | b0;
+            page[i + 1] = a1 | b1;
+            page[i + 2] = a2 | b2;
+            page[i + 3] = a3 | b3;
+        }
+        return delta;
+    }
+
+    /**
+     * Bitwise <code>overflow = overflow | (page & that)</code>, <code>page = page | that</code>.
+     * @return number of bits set in <code>page</code> in lower 32 bits and
+     *         number of bits set in <code>overflow</code> in upper 32 bits
+     */
+    public static long orWithOverflow(long[] page, long[] that, long[] overflow, int pageSize) {
+        int se = pageSize + (pageSize >> 6);
+        int delta = 0;
+        int overflowDelta = 0;
+        for(int si = pageSize; si != se; ++si) {
+            long summary = that[si];
+            page[si] |= summary;
+            int base = (si - pageSize) << 6;
+            while(summary != 0) {
+                int i = base + Long.numberOfTrailingZeros(summary);
+                long o = page[i] & that[i];
+                delta += Long.bitCount(that[i] & ~page[i]);
+                page[i] |= that[i];
+                if (o != 0) {
+                    overflowDelta += Long.bitCount(o & ~overflow[i]);
+                    overflow[i] |= o;
+                    overflow[si] |= 1l << i;
+                }
+                summary &= summary - 1;
+            }
+        }
+        return (((long) overflowDelta) << 32) | delta;
+    }
+
+    /**
+     * Bitwise <code>page = page & that</code>, only non-zero words of <code>page</code> are visited.
+     * @return number of bits cleared in <code>page</code>
+     */
+    public static int and(long[] page, long[] that, int pageSize) {
+        int se = pageSize + (pageSize >> 6);
+        int delta = 0;
+        for(int si = pageSize; si != se; ++si) {
+            long summary = page[si];
+            int base = (si - pageSize) << 6;
+            if (Long.bitCount(summary) >= DENSE_WORDS) {
+                delta += andBlock(page, that, base, si, false);
+                continue;
+            }
+            while(summary != 0) {
+                int i = base + Long.numberOfTrailingZeros(summary);
+                delta += Long.bitCount(page[i] & ~that[i]);
+                long v = page[i] & that[i];
+                page[i] = v;
+                if (v == 0) {
+                    page[si] &= ~(1l << i);
+                }
+                summary &= summary - 1;
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Bitwise <code>page = page & ~that</code>, only words non-zero in both pages are visited.
+     * @return number of bits cleared in <code>page</code>
+     */
+    public static int andNot(long[] page, long[] that, int pageSize) {
+        int se = pageSize + (pageSize >> 6);
+        int delta = 0;
+        for(int si = pageSize; si != se; ++si) {
+            long summary = page[si] & that[si];
+            int base = (si - pageSize) << 6;
+            if (Long.bitCount(summary) >= DENSE_WORDS) {
+                delta += andBlock(page, that, base, si, true);
+                continue;
+            }
+            while(summary != 0) {
+                int i = base + Long.numberOfTrailingZeros(summary);
+                delta += Long.bitCount(page[i] & that[i]);
+                long v = page[i] & ~that[i];
+                page[i] = v;
+                if (v == 0) {
+                    page[si] &= ~(1l << i);
+                }
+                summary &= summary - 1;
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Bitwise <code>page = page & that</code> or <code>page = page & ~that</code>
+     * over whole block, summary word of <code>page</code> is recomputed.
+     * @return number of bits cleared in <code>page</code>
+     */
+    private static int andBlock(long[] page, long[] that, int base, int si, boolean not) {
+        // complement that if needed without branching in the loop
+        long flip = not ? -1l : 0;
+        int delta = 0;
+        long summary = 0;
+        for(int i = base; i != base + 64; i += 4) {
+            long a0 = page[i];
+            long a1 = page[i + 1];
+            long a2 = page[i + 2];
+            long a3 = page[i + 3];
+            long v0 = a0 & (that[i] ^ flip);
+            long v1 = a1 & (that[i + 1] ^ flip);
+            long v2 = a2 & (that[i + 2] ^ flip);
+            long v3 = a3 & (that[i + 3] ^ flip);
+            delta += Long.bitCount(a0 ^ v0) + Long.bitCount(a1 ^ v1) + Long.bitCount(a2 ^ v2) + Long.bitCount(a3 ^ v3);
+            page[i] = v0;
+            page[i + 1] = v1;
+            page[i + 2] = v2;
+            page[i + 3] = v3;
+            // (v | -v) >>> 63 is 1 for any non-zero v
+            int k = i - base;
+            summary |= (((v0 | -v0) >>> 63) << k)
+                     | (((v1 | -v1) >>> 63) << (k + 1))
+                     | (((v2 | -v2) >>> 63) << (k + 2))
+                     | (((v3 | -v3) >>> 63) << (k + 3));
+        }
+        page[si] = summary;
+        return delta;
+    }
+
+    /**
+     * Sets all bits of page.
+     * @return number of bits set in <code>page</code>
+     */
+    public static int fill(long[] page, int pageSize) {
+        int delta = 64 * pageSize - count(page, pageSize);
+        Arrays.fill(page, 0, pageWords(pageSize), -1l);
+        return delta;
+    }
+
+    /**
+     * @return number of bits cleared in <code>page</code>
+     */
+    public static int clear(long[] page, int pageSize) {
+        int se = pageSize + (pageSize >> 6);
+        int n = 0;
+        for(int si = pageSize; si != se; ++si) {
+            long summary = page[si];
+            int base = (si - pageSize) << 6;
+            while(summary != 0) {
+                int i = base + Long.numberOfTrailingZeros(summary);
+                n += Long.bitCount(page[i]);
+                page[i] = 0;
+                summary &= summary - 1;
+            }
+            page[si] = 0;
+        }
+        return n;
+    }
+
+    public static void set(ByteBuffer buffer, int offset, int pageSize, int i, long value) {
+        buffer.putLong(offset + 8 * i, value);
+        int si = offset + 8 * (pageSize + (i >> 6));
+        if (value == 0) {
+            buffer.putLong(si, buffer.getLong(si) & ~(1l << i));
+        }
+        else {
+            buffer.putLong(si, buffer.getLong(si) | (1l << i));
+        }
+    }
+
+    public static int seekNext(ByteBuffer buffer, int offset, int pageSize, int i) {
+        if (i >= pageSize) {
+            return -1;
+        }
+        int se = pageSize + (pageSize >> 6);
+        int si = pageSize + (i >> 6);
+        long summary = buffer.getLong(offset + 8 * si) & (-1l << i);
+        while(true) {
+            if (summary != 0) {
+                return ((si - pageSize) << 6) + Long.numberOfTrailingZeros(summary);
+            }
+            if (++si == se) {
+                return -1;
+            }
+            summary = buffer.getLong(offset + 8 * si);
+        }
+    }
+
+    public static boolean isEmpty(ByteBuffer buffer, int offset, int pageSize) {
+        int se = pageSize + (pageSize >> 6);
+        for(int si = pageSize; si != se; ++si) {
+            if (buffer.getLong(offset + 8 * si) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return index of first set bit at or after <code>i</code> in bit array or -1
+     */
+    public static int nextBit(long[] bits, int i) {
+        int wi = i >> 6;
+        if (wi >= bits.length) {
+            return -1;
+        }
+        long w = bits[wi] & (-1l << i);
+        while(true) {
+            if (w != 0) {
+                return (wi << 6) + Long.numberOfTrailingZeros(w);
+            }
+            if (++wi == bits.length) {
+                return -1;
+            }
+            w = bits[wi];
+        }
+    }
+}
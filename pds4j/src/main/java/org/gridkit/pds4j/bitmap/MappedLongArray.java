@@ -0,0 +1,304 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * {@link LongArray} keeping its pages in memory mapped file,
+ * so array could be larger than heap or physical memory.
+ * <br/>
+ * Pages are allocated on first write, like in {@link PagedLongArray}.
+ * File consists of header followed by page slots in allocation order,
+ * each slot starts with index of page it holds. Page lookup is done either via
+ * array (dense mode, like {@link PagedLongArray}) or via tree
+ * (sparse mode, like {@link SparsePagedLongArray}).
+ * <br/>
+ * Opening existing file only reads slot indexes to restore page
+ * directory, page content is loaded by OS on demand.
+ * <br/>
+ * {@link #release()} flushes and unmaps file, array is closed after that
+ * and any access throws {@link IllegalStateException}. Open file again to
+ * continue using its content.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class MappedLongArray implements LongArray {
+
+    private final static int PAGE_BITS = 10;
+    private final static int PAGE_MASK = ~(-1 << PAGE_BITS);
+    private final static int PAGE_SIZE = 1 << PAGE_BITS;
+
+    public final static long NULL_VALUE = 0;
+
+    private final static long MAGIC = 0x504453344A424D31l; // PDS4JBM1
+    private final static int HEADER_SIZE = 64;
+    private final static int H_MAGIC = 0;
+    private final static int H_PAGE_BITS = 8;
+    private final static int H_SPARSE = 12;
+    private final static int H_SLOT_COUNT = 16;
+
+    private final static int PAGE_BYTES = 8 * LongPages.pageWords(PAGE_SIZE);
+    private final static int SLOT_SIZE = 8 + PAGE_BYTES;
+    private final static int SLOTS_PER_SEGMENT = 1024;
+
+    private final File path;
+    private final boolean sparse;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    private long slotCount;
+
+    // dense mode directory, one bit per allocated page
+    protected ByteBuffer[] array = new ByteBuffer[16];
+    protected long[] allocated = new long[1];
+
+    // sparse mode directory
+    protected SortedMap<Long, ByteBuffer> pages = new TreeMap<Long, ByteBuffer>();
+
+    /**
+     * Opens existing file or creates a new one.
+     */
+    public MappedLongArray(File path, boolean sparse) throws IOException {
+        this.path = path;
+        this.sparse = sparse;
+        boolean exists = path.length() > 0;
+        file = new RandomAccessFile(path, "rw");
+        boolean ok = false;
+        try {
+            channel = file.getChannel();
+            header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (exists) {
+                if (header.getLong(H_MAGIC) != MAGIC) {
+                    throw new IOException("Not a bit map file: " + path);
+                }
+                if (header.getInt(H_PAGE_BITS) != PAGE_BITS || (header.getInt(H_SPARSE) != 0) != sparse) {
+                    throw new IOException("Incompatible bit map layout in " + path);
+                }
+                long slots = header.getLong(H_SLOT_COUNT);
+                for(long s = 0; s != slots; ++s) {
+                    ByteBuffer slot = slot(s);
+                    putPage(slot.getLong(0), page(slot));
+                }
+                slotCount = slots;
+            }
+            else {
+                header.putLong(H_MAGIC, MAGIC);
+                header.putInt(H_PAGE_BITS, PAGE_BITS);
+                header.putInt(H_SPARSE, sparse ? 1 : 0);
+                header.putLong(H_SLOT_COUNT, 0);
+            }
+            ok = true;
+        }
+        finally {
+            if (!ok) {
+                file.close();
+            }
+        }
+    }
+
+    public long get(long n) {
+        if (n < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + n);
+        }
+        checkOpen();
+        ByteBuffer page = getPage(n >>> PAGE_BITS);
+        if (page == null) {
+            return NULL_VALUE;
+        }
+        return page.getLong(8 * (int) (n & PAGE_MASK));
+    }
+
+    public long seekNext(long start) {
+        if (start < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + start);
+        }
+        checkOpen();
+        long bi = start >>> PAGE_BITS;
+        int wi = (int) (start & PAGE_MASK);
+        if (sparse) {
+            for(Map.Entry<Long, ByteBuffer> entry: pages.tailMap(bi).entrySet()) {
+                long pi = entry.getKey();
+                int i = LongPages.seekNext(entry.getValue(), 0, PAGE_SIZE, pi == bi ? wi : 0);
+                if (i >= 0) {
+                    return (pi << PAGE_BITS) + i;
+                }
+            }
+            return -1;
+        }
+        else {
+            if (bi >= array.length) {
+                return -1;
+            }
+            int pi = (int) bi;
+            while(true) {
+                ByteBuffer page = array[pi];
+                if (page != null) {
+                    int i = LongPages.seekNext(page, 0, PAGE_SIZE, wi);
+                    if (i >= 0) {
+                        return (((long)pi) << PAGE_BITS) + i;
+                    }
+                }
+                pi = LongPages.nextBit(allocated, pi + 1);
+                if (pi < 0) {
+                    return -1;
+                }
+                wi = 0;
+            }
+        }
+    }
+
+    public void set(long n, long value) {
+        if (n < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + n);
+        }
+        checkOpen();
+        long bi = n >>> PAGE_BITS;
+        ByteBuffer page = getPage(bi);
+        if (page == null) {
+            if (value == NULL_VALUE) {
+                return;
+            }
+            page = allocatePage(bi);
+        }
+        LongPages.set(page, 0, PAGE_SIZE, (int) (n & PAGE_MASK), value);
+    }
+
+    private void checkOpen() {
+        if (channel == null) {
+            throw new IllegalStateException("Bit map file is closed: " + path);
+        }
+    }
+
+    /**
+     * Page slots of file are never reused, so there is nothing to compact.
+     */
+    public void compact() {
+    }
+
+    /**
+     * Forces content to disk and unmaps file, array is closed afterwards.
+     * Repeated calls are ignored.
+     */
+    public void release() {
+        if (channel == null) {
+            return;
+        }
+        header.force();
+        for(MappedByteBuffer segment: segments) {
+            segment.force();
+        }
+        // drop all references to mapped memory before unmapping
+        array = new ByteBuffer[16];
+        allocated = new long[1];
+        pages.clear();
+        List<MappedByteBuffer> mapped = segments;
+        segments = new ArrayList<MappedByteBuffer>();
+        DirectBuffers.free(header);
+        header = null;
+        for(MappedByteBuffer segment: mapped) {
+            DirectBuffers.free(segment);
+        }
+        try {
+            channel.close();
+            file.close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to close " + path, e);
+        }
+        finally {
+            channel = null;
+            file = null;
+        }
+    }
+
+    private ByteBuffer getPage(long bi) {
+        if (sparse) {
+            return pages.get(bi);
+        }
+        else {
+            return bi < array.length ? array[(int) bi] : null;
+        }
+    }
+
+    private void putPage(long bi, ByteBuffer page) {
+        if (sparse) {
+            pages.put(bi, page);
+        }
+        else {
+            if (bi > Integer.MAX_VALUE) {
+                throw new ArrayIndexOutOfBoundsException("Page index is out of range for dense mode: " + bi);
+            }
+            int pi = (int) bi;
+            if (pi >= array.length) {
+                array = Arrays.copyOf(array, Math.max(pi + 1, 2 * array.length));
+                allocated = Arrays.copyOf(allocated, (array.length >> 6) + 1);
+            }
+            array[pi] = page;
+            allocated[pi >> 6] |= 1l << pi;
+        }
+    }
+
+    private ByteBuffer allocatePage(long bi) {
+        ByteBuffer slot;
+        try {
+            slot = slot(slotCount);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to extend " + path, e);
+        }
+        slot.putLong(0, bi);
+        ByteBuffer page = page(slot);
+        putPage(bi, page);
+        header.putLong(H_SLOT_COUNT, ++slotCount);
+        return page;
+    }
+
+    private ByteBuffer slot(long s) throws IOException {
+        int si = (int) (s / SLOTS_PER_SEGMENT);
+        while(segments.size() <= si) {
+            long offset = HEADER_SIZE + ((long) segments.size()) * SLOTS_PER_SEGMENT * SLOT_SIZE;
+            // mapping beyond end of file extends it, new region reads as zeros
+            segments.add(channel.map(MapMode.READ_WRITE, offset, ((long) SLOTS_PER_SEGMENT) * SLOT_SIZE));
+        }
+        ByteBuffer slot = segments.get(si).duplicate();
+        int offset = (int) (s % SLOTS_PER_SEGMENT) * SLOT_SIZE;
+        slot.position(offset);
+        slot.limit(offset + SLOT_SIZE);
+        return slot.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer page(ByteBuffer slot) {
+        ByteBuffer page = slot.duplicate();
+        page.position(8);
+        return page.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
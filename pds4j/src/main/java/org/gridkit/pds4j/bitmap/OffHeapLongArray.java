@@ -0,0 +1,147 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Same as {@link PagedLongArray}, but pages are allocated
+ * in direct memory, so large bit maps do not contribute to heap
+ * occupancy and GC marking.
+ * <br/>
+ * Memory is freed by {@link #release()}, unreleased pages
+ * are reclaimed only when array itself is collected.
+ * Empty pages are kept until {@link #compact()} to avoid
+ * allocating direct memory repeatedly for churning pages.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class OffHeapLongArray implements LongArray {
+
+    private final static int PAGE_BITS = 10;
+    private final static int PAGE_MASK = ~(-1 << PAGE_BITS);
+    private final static int PAGE_SIZE = 1 << PAGE_BITS;
+
+    public final static long NULL_VALUE = 0;
+
+    protected ByteBuffer[] array = new ByteBuffer[16];
+    // one bit per page with at least one non-zero word
+    protected long[] pageSummary = new long[1];
+
+    public long get(long n) {
+        int bi = (int) (n >> PAGE_BITS);
+        if (bi >= array.length) {
+            return NULL_VALUE;
+        }
+        if (bi < 0) {
+            throw new ArrayIndexOutOfBoundsException(bi);
+        }
+        ByteBuffer page = array[bi];
+        if (page == null) {
+            return NULL_VALUE;
+        }
+        return page.getLong(8 * (int) (n & PAGE_MASK));
+    }
+
+    public long seekNext(long start) {
+        if (start < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + start);
+        }
+        if ((start >> PAGE_BITS) >= array.length) {
+            return -1;
+        }
+        int bi = (int) (start >> PAGE_BITS);
+        int wi = (int) (start & PAGE_MASK);
+        while(true) {
+            ByteBuffer page = array[bi];
+            if (page != null) {
+                int i = LongPages.seekNext(page, 0, PAGE_SIZE, wi);
+                if (i >= 0) {
+                    return (((long)bi) << PAGE_BITS) + i;
+                }
+            }
+            bi = LongPages.nextBit(pageSummary, bi + 1);
+            if (bi < 0) {
+                return -1;
+            }
+            wi = 0;
+        }
+    }
+
+    public void set(long n, long value) {
+        int bi = (int) (n >> PAGE_BITS);
+        if (bi < 0) {
+            throw new ArrayIndexOutOfBoundsException(bi);
+        }
+        if (bi >= array.length) {
+            if (value == NULL_VALUE) {
+                return;
+            }
+            array = Arrays.copyOf(array, Math.max(bi + 1, 2 * array.length));
+            if ((bi >> 6) >= pageSummary.length) {
+                pageSummary = Arrays.copyOf(pageSummary, (array.length >> 6) + 1);
+            }
+        }
+        ByteBuffer page = array[bi];
+        if (page == null) {
+            if (value == NULL_VALUE) {
+                return;
+            }
+            // direct buffers are zeroed on allocation
+            array[bi] = page = ByteBuffer.allocateDirect(8 * LongPages.pageWords(PAGE_SIZE)).order(ByteOrder.nativeOrder());
+        }
+        int wi = (int) (n & PAGE_MASK);
+        LongPages.set(page, 0, PAGE_SIZE, wi, value);
+        if (value != NULL_VALUE) {
+            pageSummary[bi >> 6] |= 1l << bi;
+        }
+        else if (page.getLong(8 * (PAGE_SIZE + (wi >> 6))) == 0 && LongPages.isEmpty(page, 0, PAGE_SIZE)) {
+            pageSummary[bi >> 6] &= ~(1l << bi);
+        }
+    }
+
+    public void compact() {
+        int last = -1;
+        for(int bi = 0; bi != array.length; ++bi) {
+            ByteBuffer page = array[bi];
+            if (page != null) {
+                if (LongPages.isEmpty(page, 0, PAGE_SIZE)) {
+                    array[bi] = null;
+                    DirectBuffers.free(page);
+                }
+                else {
+                    last = bi;
+                }
+            }
+        }
+        int len = Math.max(16, last + 1);
+        if (len < array.length) {
+            array = Arrays.copyOf(array, len);
+            pageSummary = Arrays.copyOf(pageSummary, (len >> 6) + 1);
+        }
+    }
+
+    public void release() {
+        ByteBuffer[] pages = array;
+        array = new ByteBuffer[16];
+        pageSummary = new long[1];
+        for(ByteBuffer page: pages) {
+            DirectBuffers.free(page);
+        }
+    }
+}
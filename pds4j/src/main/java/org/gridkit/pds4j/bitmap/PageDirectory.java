@@ -0,0 +1,219 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Ordered map from non-negative page index to page.
+ * <br/>
+ * Radix tree with 64 way nodes, each node keeps a bit mask of
+ * present children, so successor search is a few trailing zero counts
+ * per level. Tree grows in height as larger keys are added, so small
+ * indexes are reachable in few steps while whole <code>long</code> range
+ * is still covered. Lookups do not allocate.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+final class PageDirectory<P> {
+
+    private final static int LEVEL_BITS = 6;
+    private final static int FANOUT = 1 << LEVEL_BITS;
+    private final static int LEVEL_MASK = FANOUT - 1;
+    // enough levels for 63 bit keys
+    private final static int MAX_HEIGHT = (63 + LEVEL_BITS - 1) / LEVEL_BITS;
+
+    private Node root = new Node();
+    // root covers keys below 2^(LEVEL_BITS * height)
+    private int height = 1;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public P get(long key) {
+        if (!covers(key)) {
+            return null;
+        }
+        Node node = root;
+        for(int level = height - 1; level > 0; --level) {
+            node = (Node) node.slots[slot(key, level)];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (P) node.slots[slot(key, 0)];
+    }
+
+    public void put(long key, P page) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+        if (page == null) {
+            remove(key);
+            return;
+        }
+        while(!covers(key)) {
+            if (root.mask != 0) {
+                Node node = new Node();
+                node.slots[0] = root;
+                node.mask = 1;
+                root = node;
+            }
+            ++height;
+        }
+        Node node = root;
+        for(int level = height - 1; level > 0; --level) {
+            int s = slot(key, level);
+            Node next = (Node) node.slots[s];
+            if (next == null) {
+                node.slots[s] = next = new Node();
+                node.mask |= 1l << s;
+            }
+            node = next;
+        }
+        int s = slot(key, 0);
+        if (node.slots[s] == null) {
+            ++size;
+        }
+        node.slots[s] = page;
+        node.mask |= 1l << s;
+    }
+
+    public void remove(long key) {
+        if (covers(key)) {
+            remove(root, height - 1, key);
+        }
+    }
+
+    /**
+     * @return true if node has become empty
+     */
+    private boolean remove(Node node, int level, long key) {
+        int s = slot(key, level);
+        Object child = node.slots[s];
+        if (child == null) {
+            return false;
+        }
+        if (level == 0) {
+            --size;
+        }
+        else if (!remove((Node) child, level - 1, key)) {
+            return false;
+        }
+        node.slots[s] = null;
+        node.mask &= ~(1l << s);
+        return node.mask == 0;
+    }
+
+    /**
+     * @return smallest key at or after <code>key</code> or -1
+     */
+    public long nextKey(long key) {
+        if (key < 0) {
+            key = 0;
+        }
+        if (!covers(key)) {
+            return -1;
+        }
+        return nextKey(root, height - 1, key);
+    }
+
+    private long nextKey(Node node, int level, long key) {
+        int shift = LEVEL_BITS * level;
+        long base = shift + LEVEL_BITS >= 64 ? 0 : key & (-1l << (shift + LEVEL_BITS));
+        int s = slot(key, level);
+        long mask = node.mask & (-1l << s);
+        while(mask != 0) {
+            int c = Long.numberOfTrailingZeros(mask);
+            if (level == 0) {
+                return base | c;
+            }
+            long sub = c == s ? key : base | (((long) c) << shift);
+            long r = nextKey((Node) node.slots[c], level - 1, sub);
+            if (r >= 0) {
+                return r;
+            }
+            mask &= mask - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return largest key or -1 if directory is empty
+     */
+    public long lastKey() {
+        if (size == 0) {
+            return -1;
+        }
+        long key = 0;
+        Node node = root;
+        for(int level = height - 1; level >= 0; --level) {
+            int c = 63 - Long.numberOfLeadingZeros(node.mask);
+            key |= ((long) c) << (LEVEL_BITS * level);
+            if (level > 0) {
+                node = (Node) node.slots[c];
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return copy of directory sharing pages with this one
+     */
+    public PageDirectory<P> copy() {
+        PageDirectory<P> copy = new PageDirectory<P>();
+        copy.root = copy(root, height - 1);
+        copy.height = height;
+        copy.size = size;
+        return copy;
+    }
+
+    private static Node copy(Node node, int level) {
+        Node copy = new Node();
+        copy.mask = node.mask;
+        for(long mask = node.mask; mask != 0; mask &= mask - 1) {
+            int s = Long.numberOfTrailingZeros(mask);
+            copy.slots[s] = level == 0 ? node.slots[s] : copy((Node) node.slots[s], level - 1);
+        }
+        return copy;
+    }
+
+    public void clear() {
+        root = new Node();
+        height = 1;
+        size = 0;
+    }
+
+    private boolean covers(long key) {
+        return height >= MAX_HEIGHT || (key >>> (LEVEL_BITS * height)) == 0;
+    }
+
+    private static int slot(long key, int level) {
+        return (int) (key >>> (LEVEL_BITS * level)) & LEVEL_MASK;
+    }
+
+    private static class Node {
+
+        long mask;
+        final Object[] slots = new Object[FANOUT];
+
+    }
+}
@@ -15,19 +15,40 @@
  */
 package org.gridkit.pds4j.bitmap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Simple bit map using paged long array for storage.
  * Untouched pages are not allocated, so it is reasonably efficient
  * for bitmaps with large gaps.
+ * <br/>
+ * Number of set bits is tracked by all mutating operations,
+ * so {@link #countOnes()} does not scan bit map.
+ * <br/>
+ * {@link #rank(long)} and {@link #select(long)} use index of
+ * cumulative counts, which is updated on demand after mutations.
  *
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
 public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBitMap {
 
+    private final static int PAGES_PER_TASK = 64;
+
     private final LongArray array;
+    // number of set bits, -1 if unknown
+    private long ones;
+    private final RankIndex rankIndex;
     
     public PagedBitMap() {
         this(new PagedLongArray());
+        ones = 0;
     }
 
     public PagedBitMap(boolean spare) {
@@ -37,10 +58,31 @@ public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBi
         else {
             this.array = new PagedLongArray();
         }
+        rankIndex = new RankIndex(array);
+        ones = 0;
     }
     
+    /**
+     * @param pageBits log2 of number of 64 bit words in page, see {@link BitMaps#sparseBitMap(int)}
+     */
+    public PagedBitMap(boolean spare, int pageBits) {
+        if (spare) {
+            this.array = new SparsePagedLongArray(pageBits);
+        }
+        else {
+            this.array = new PagedLongArray(pageBits);
+        }
+        rankIndex = new RankIndex(array);
+        ones = 0;
+    }
+
+    /**
+     * Provided array may have content, it would be counted on first {@link #countOnes()} call.
+     */
     protected PagedBitMap(LongArray longArray) {
         this.array = longArray;
+        this.rankIndex = new RankIndex(longArray);
+        this.ones = -1;
     }
 
     @Override
@@ -48,6 +90,27 @@ public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBi
         return array;
     }
     
+    /**
+     * Clears bit map and releases its pages.
+     * Off heap memory is freed immediately.
+     * File backed bit map is flushed and closed, its content stays in the file,
+     * any further access to it throws {@link IllegalStateException}.
+     */
+    public void release() {
+        array.release();
+        rankIndex.reset();
+        ones = -1;
+    }
+
+    /**
+     * Frees empty pages and shrinks page directory of backing array.
+     * Heap backed bit maps drop pages as soon as they become empty,
+     * so this is mostly useful to reduce page directory after large deletions.
+     */
+    public void compact() {
+        array.compact();
+    }
+
     @Override
     public boolean get(long index) {
         if (index < 0) {
@@ -63,28 +126,147 @@ public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBi
         if (start < 0) {
             throw new IllegalArgumentException("Negative bit index: " + start);
         }
-        long n = start;
-        while(true) {
-            long lindex = n / 64;
-            long bit = 1l << (n % 64);
+        long lindex = start >>> 6;
+        long word = array.get(lindex) & (-1l << start);
+        if (word == 0) {
+            lindex = array.seekNext(lindex + 1);
+            if (lindex < 0) {
+                return -1;
+            }
+            word = array.get(lindex);
+        }
+        return (lindex << 6) + Long.numberOfTrailingZeros(word);
+    }
 
-            long word = array.get(lindex);
-            if (word == 0) {
-                long nn = array.seekNext(lindex);
-                if (nn < 0) {
-                    return -1;
-                }
-                n = 64 * nn;
-                continue;
+    @Override
+    public long seekZero(long start) {
+        if (start < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + start);
+        }
+        long lindex = start >>> 6;
+        long word = ~array.get(lindex) & (-1l << start);
+        while(word == 0) {
+            ++lindex;
+            if (array.seekNext(lindex) != lindex) {
+                // word is zero
+                return lindex << 6;
             }
-            while(bit != 0) {
-                if (0 != (bit & word)) {
-                    return n;
+            word = ~array.get(lindex);
+        }
+        return (lindex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    @Override
+    public long countOnes(long from, long to) {
+        checkRange(from, to);
+        if (from == to) {
+            return 0;
+        }
+        long fw = from >>> 6;
+        long lw = (to - 1) >>> 6;
+        long fm = -1l << from;
+        long lm = -1l >>> -to;
+        if (fw == lw) {
+            return Long.bitCount(array.get(fw) & fm & lm);
+        }
+        long n = Long.bitCount(array.get(fw) & fm);
+        for(long i = array.seekNext(fw + 1); i >= 0 && i < lw; i = array.seekNext(i + 1)) {
+            n += Long.bitCount(array.get(i));
+        }
+        n += Long.bitCount(array.get(lw) & lm);
+        return n;
+    }
+
+    /**
+     * Sets bits in range <code>[from, to)</code>, whole pages are filled at once.
+     */
+    @Override
+    public void setRange(long from, long to) {
+        fillRange(from, to, true);
+    }
+
+    /**
+     * Clears bits in range <code>[from, to)</code>, whole pages are released at once.
+     */
+    @Override
+    public void clearRange(long from, long to) {
+        fillRange(from, to, false);
+    }
+
+    private void fillRange(long from, long to, boolean value) {
+        checkRange(from, to);
+        if (from == to) {
+            return;
+        }
+        long fw = from >>> 6;
+        long lw = (to - 1) >>> 6;
+        long fm = -1l << from;
+        long lm = -1l >>> -to;
+        long delta;
+        if (fw == lw) {
+            delta = fillWord(fw, fm & lm, value);
+        }
+        else {
+            delta = fillWord(fw, fm, value);
+            delta += fillWords(fw + 1, lw, value);
+            delta += fillWord(lw, lm, value);
+        }
+        updated(fw, delta);
+    }
+
+    /**
+     * @return change in number of set bits
+     */
+    private long fillWord(long wi, long mask, boolean value) {
+        long ov = array.get(wi);
+        long v = value ? ov | mask : ov & ~mask;
+        if (v == ov) {
+            return 0;
+        }
+        array.set(wi, v);
+        return Long.bitCount(v) - Long.bitCount(ov);
+    }
+
+    /**
+     * Fills words in range <code>[from, to)</code>.
+     * @return change in number of set bits
+     */
+    private long fillWords(long from, long to, boolean value) {
+        long delta = 0;
+        if (array instanceof LongPageArray) {
+            LongPageArray pa = (LongPageArray) array;
+            int pageBits = pa.getPageBits();
+            int pageSize = 1 << pageBits;
+            long fp = (from + pageSize - 1) >>> pageBits;
+            long lp = to >>> pageBits;
+            if (fp < lp) {
+                delta += fillWords(from, fp << pageBits, value);
+                if (value) {
+                    for(long pi = fp; pi != lp; ++pi) {
+                        delta += LongPages.fill(pa.getPageForWrite(pi), pageSize);
+                        pa.onPageUpdate(pi);
+                    }
                 }
-                ++n;
-                bit <<= 1;
+                else {
+                    for(long pi = pa.seekPage(fp); pi >= 0 && pi < lp; pi = pa.seekPage(pi + 1)) {
+                        delta -= LongPages.clear(pa.getPageForWrite(pi), pageSize);
+                        pa.onPageUpdate(pi);
+                    }
+                }
+                from = lp << pageBits;
             }
         }
+        if (value) {
+            for(long i = from; i < to; ++i) {
+                delta += fillWord(i, -1l, true);
+            }
+        }
+        else {
+            for(long i = array.seekNext(from); i >= 0 && i < to; i = array.seekNext(i + 1)) {
+                delta += fillWord(i, -1l, false);
+            }
+        }
+        return delta;
     }
 
     @Override
@@ -94,11 +276,18 @@ public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBi
         }
         long lindex = index / 64;
         long bit = 1l << (index % 64);
+        long ov = array.get(lindex);
         if (value) {
-            array.set(lindex, bit | array.get(lindex));
+            array.set(lindex, bit | ov);
+            if (0 == (bit & ov)) {
+                updated(lindex, 1);
+            }
         }
         else {
-            array.set(lindex, (~bit) & array.get(lindex));
+            array.set(lindex, (~bit) & ov);
+            if (0 != (bit & ov)) {
+                updated(lindex, -1);
+            }
         }
     }
 
@@ -110,13 +299,17 @@ public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBi
         long lindex = index / 64;
         long bit = 1l << (index % 64);
         long ov = array.get(lindex);
+        boolean old = 0 != (bit & ov);
         if (value) {
-        array.set(lindex, bit | ov);
+            array.set(lindex, bit | ov);
         }
         else {
             array.set(lindex, (~bit) & ov);
         }
-        return 0 != (bit & ov);
+        if (old != value) {
+            updated(lindex, value ? 1 : -1);
+        }
+        return old;
     }
 
     /**
@@ -125,18 +318,37 @@ public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBi
      */
     @Override
     public void add(BitMap that) {
-        if (that instanceof LongArrayBackedBitMap) {
-            LongArray ta = ((LongArrayBackedBitMap) that).backingArray();
+        LongPageArray tp = pageArray(this);
+        LongPageArray sp = pageArray(that);
+        LongArray ta = compatible(tp, sp) ? null : directWords(that);
+        if (compatible(tp, sp)) {
+            // page at a time, see LongPages.or()
+            int pageSize = 1 << tp.getPageBits();
+            long first = sp.seekPage(0);
+            long delta = 0;
+            for(long pi = first; pi >= 0; pi = sp.seekPage(pi + 1)) {
+                long[] other = sp.getPageForRead(pi);
+                delta += LongPages.or(tp.getPageForWrite(pi), other, pageSize);
+                tp.onPageUpdate(pi);
+            }
+            updated(first << tp.getPageBits(), delta);
+        }
+        else if (ta != null) {
             long n = 0;
+            long first = ta.seekNext(0);
+            long delta = 0;
             while(true) {
                 n = ta.seekNext(n);
                 if (n < 0) {
                     break;
                 }
-                long v = array.get(n) | ta.get(n);
+                long ov = array.get(n);
+                long v = ov | ta.get(n);
                 array.set(n, v);
+                delta += Long.bitCount(v ^ ov);
                 ++n;
             }
+            updated(first, delta);
         }
         else {
             bitwiseAdd(that);
@@ -151,24 +363,58 @@ public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBi
      */
     @Override
     public void addWithOverflow(BitMap that, BitMap overflow) {
-        if (that instanceof LongArrayBackedBitMap && overflow instanceof LongArrayBackedBitMap) {
-            LongArray ta = ((LongArrayBackedBitMap)that).backingArray();
+        LongPageArray tp = pageArray(this);
+        LongPageArray sp = pageArray(that);
+        LongPageArray op = pageArray(overflow);
+        LongArray ta = compatible(tp, sp) && compatible(tp, op) ? null : directWords(that);
+        if (compatible(tp, sp) && compatible(tp, op)) {
+            // page at a time, see LongPages.orWithOverflow()
+            int pageSize = 1 << tp.getPageBits();
+            long first = sp.seekPage(0);
+            long delta = 0;
+            long overflowDelta = 0;
+            for(long pi = first; pi >= 0; pi = sp.seekPage(pi + 1)) {
+                long[] other = sp.getPageForRead(pi);
+                if (tp.getPageForRead(pi) == null) {
+                    // overlap is only possible where this page exists
+                    delta += LongPages.or(tp.getPageForWrite(pi), other, pageSize);
+                }
+                else {
+                    long d = LongPages.orWithOverflow(tp.getPageForWrite(pi), other, op.getPageForWrite(pi), pageSize);
+                    delta += d & 0xFFFFFFFFl;
+                    overflowDelta += d >>> 32;
+                    op.onPageUpdate(pi);
+                }
+                tp.onPageUpdate(pi);
+            }
+            updated(first << tp.getPageBits(), delta);
+            updated(overflow, first << tp.getPageBits(), overflowDelta);
+        }
+        else if (ta != null && overflow instanceof LongArrayBackedBitMap) {
             LongArray of = ((LongArrayBackedBitMap)overflow).backingArray();
             long n = 0;
+            long first = ta.seekNext(0);
+            long delta = 0;
+            long overflowDelta = 0;
             while(true) {
                 n = ta.seekNext(n);
                 if (n < 0) {
                     break;
                 }
-                long o = array.get(n) & ta.get(n);
-                long v = array.get(n) | ta.get(n);
+                long ov = array.get(n);
+                long o = ov & ta.get(n);
+                long v = ov | ta.get(n);
                 array.set(n, v);
+                delta += Long.bitCount(v ^ ov);
                 if (o != 0) {
-                    o |= of.get(n);
-                    of.set(n, o);
+                    long oov = of.get(n);
+                    of.set(n, o | oov);
+                    overflowDelta += Long.bitCount(o & ~oov);
                 }
                 ++n;
             }
+            updated(first, delta);
+            updated(overflow, first, overflowDelta);
         }
         else {
             bitwiseAddWithOverflow(that, overflow);
@@ -181,18 +427,39 @@ public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBi
      */
     @Override
     public void sub(BitMap that) {
-        if (that instanceof LongArrayBackedBitMap) {
-            LongArray ta = ((LongArrayBackedBitMap) that).backingArray();
+        LongPageArray tp = pageArray(this);
+        LongPageArray sp = pageArray(that);
+        LongArray ta = compatible(tp, sp) ? null : directWords(that);
+        if (compatible(tp, sp)) {
+            // page at a time, see LongPages.andNot()
+            int pageSize = 1 << tp.getPageBits();
+            long first = sp.seekPage(0);
+            long delta = 0;
+            for(long pi = first; pi >= 0; pi = sp.seekPage(pi + 1)) {
+                long[] other = sp.getPageForRead(pi);
+                if (tp.getPageForRead(pi) != null) {
+                    delta += LongPages.andNot(tp.getPageForWrite(pi), other, pageSize);
+                    tp.onPageUpdate(pi);
+                }
+            }
+            updated(first << tp.getPageBits(), -delta);
+        }
+        else if (ta != null) {
             long n = 0;
+            long first = ta.seekNext(0);
+            long delta = 0;
             while(true) {
                 n = ta.seekNext(n);
                 if (n < 0) {
                     break;
                 }
-                long v = array.get(n) & ~ta.get(n);
+                long ov = array.get(n);
+                long v = ov & ~ta.get(n);
                 array.set(n, v);
+                delta -= Long.bitCount(v ^ ov);
                 ++n;
             }
+            updated(first, delta);
         }
         else {
             bitwiseSub(that);
@@ -205,31 +472,411 @@ public class PagedBitMap extends BaseBitMap implements BitMap, LongArrayBackedBi
      */
     @Override
     public void mult(BitMap that) {
-        if (that instanceof LongArrayBackedBitMap) {
-            LongArray ta = ((LongArrayBackedBitMap) that).backingArray();
-            long n = 0;
-            while(true) {
-                n = ta.seekNext(n);
-                if (n < 0) {
-                    break;
+        LongPageArray tp = pageArray(this);
+        LongPageArray sp = pageArray(that);
+        LongArray ta = compatible(tp, sp) ? null : directWords(that);
+        if (compatible(tp, sp)) {
+            // merge over pages, pages without counterpart are dropped
+            int pageSize = 1 << tp.getPageBits();
+            long first = array.seekNext(0);
+            long delta = 0;
+            for(long pi = tp.seekPage(0); pi >= 0; pi = tp.seekPage(pi + 1)) {
+                delta += multPage(tp.getPageForWrite(pi), sp, pi, pageSize);
+                tp.onPageUpdate(pi);
+            }
+            updated(first, -delta);
+        }
+        else if (ta != null) {
+            // merge over non-zero words of both arrays
+            long first = array.seekNext(0);
+            long delta = 0;
+            long n = first;
+            while(n >= 0) {
+                long t = ta.seekNext(n);
+                if (t != n) {
+                    // no counterpart up to next word of that
+                    while(n >= 0 && (t < 0 || n < t)) {
+                        delta -= Long.bitCount(array.get(n));
+                        array.set(n, 0);
+                        n = array.seekNext(n + 1);
+                    }
+                    continue;
                 }
-                long v = array.get(n) & ta.get(n);
-                array.set(n, v);
-                ++n;
+                long ov = array.get(n);
+                long v = ov & ta.get(n);
+                if (v != ov) {
+                    array.set(n, v);
+                    delta -= Long.bitCount(v ^ ov);
+                }
+                n = array.seekNext(n + 1);
             }
+            updated(first, delta);
         }
         else {
             bitwiseMult(that);
         }
     }
 
+    /**
+     * @return number of bits cleared in page
+     */
+    private static long multPage(long[] page, LongPageArray sp, long pi, int pageSize) {
+        long[] other = sp.getPageForRead(pi);
+        if (other == null) {
+            return LongPages.clear(page, pageSize);
+        }
+        else {
+            return LongPages.and(page, other, pageSize);
+        }
+    }
+
+    /**
+     * Same as {@link #add(BitMap)}, but pages are processed in parallel
+     * by tasks submitted to provided executor.
+     * <br/>
+     * Falls back to {@link #add(BitMap)} unless both bit maps keep their pages on heap.
+     */
+    public void add(BitMap that, ExecutorService executor) {
+        final LongPageArray tp = pageArray(this);
+        final LongPageArray sp = pageArray(that);
+        if (!compatible(tp, sp)) {
+            add(that);
+            return;
+        }
+        final int pageSize = 1 << tp.getPageBits();
+        long[] pages = listPages(sp);
+        // directory is not thread safe, so pages are allocated upfront
+        for(long pi: pages) {
+            tp.getPageForWrite(pi);
+        }
+        long delta = forEachPage(pages, executor, new PageTask() {
+            @Override
+            public long process(long pi) {
+                return LongPages.or(tp.getPageForRead(pi), sp.getPageForRead(pi), pageSize);
+            }
+        });
+        for(long pi: pages) {
+            tp.onPageUpdate(pi);
+        }
+        updated(firstWord(pages, tp), delta);
+    }
+
+    /**
+     * Same as {@link #addWithOverflow(BitMap, BitMap)}, but pages are processed in parallel
+     * by tasks submitted to provided executor.
+     * <br/>
+     * Falls back to {@link #addWithOverflow(BitMap, BitMap)} unless all bit maps keep their pages on heap.
+     */
+    public void addWithOverflow(BitMap that, BitMap overflow, ExecutorService executor) {
+        final LongPageArray tp = pageArray(this);
+        final LongPageArray sp = pageArray(that);
+        final LongPageArray op = pageArray(overflow);
+        if (!compatible(tp, sp) || !compatible(tp, op)) {
+            addWithOverflow(that, overflow);
+            return;
+        }
+        final int pageSize = 1 << tp.getPageBits();
+        long[] pages = listPages(sp);
+        for(long pi: pages) {
+            if (tp.getPageForRead(pi) != null) {
+                // overlap is only possible where this page exists
+                op.getPageForWrite(pi);
+            }
+            tp.getPageForWrite(pi);
+        }
+        final AtomicLong overflowDelta = new AtomicLong();
+        long delta = forEachPage(pages, executor, new PageTask() {
+            @Override
+            public long process(long pi) {
+                long[] overflowPage = op.getPageForRead(pi);
+                if (overflowPage == null) {
+                    return LongPages.or(tp.getPageForRead(pi), sp.getPageForRead(pi), pageSize);
+                }
+                else {
+                    // page and overflow deltas are packed in single long, see LongPages.orWithOverflow()
+                    // packing only holds for single page, so they are summed separately
+                    long d = LongPages.orWithOverflow(tp.getPageForRead(pi), sp.getPageForRead(pi), overflowPage, pageSize);
+                    overflowDelta.addAndGet(d >>> 32);
+                    return d & 0xFFFFFFFFl;
+                }
+            }
+        });
+        for(long pi: pages) {
+            tp.onPageUpdate(pi);
+            op.onPageUpdate(pi);
+        }
+        updated(firstWord(pages, tp), delta);
+        updated(overflow, firstWord(pages, tp), overflowDelta.get());
+    }
+
+    /**
+     * Same as {@link #sub(BitMap)}, but pages are processed in parallel
+     * by tasks submitted to provided executor.
+     * <br/>
+     * Falls back to {@link #sub(BitMap)} unless both bit maps keep their pages on heap.
+     */
+    public void sub(BitMap that, ExecutorService executor) {
+        final LongPageArray tp = pageArray(this);
+        final LongPageArray sp = pageArray(that);
+        if (!compatible(tp, sp)) {
+            sub(that);
+            return;
+        }
+        final int pageSize = 1 << tp.getPageBits();
+        long[] pages = listPages(sp);
+        for(long pi: pages) {
+            if (tp.getPageForRead(pi) != null) {
+                tp.getPageForWrite(pi);
+            }
+        }
+        long delta = forEachPage(pages, executor, new PageTask() {
+            @Override
+            public long process(long pi) {
+                long[] page = tp.getPageForRead(pi);
+                return page == null ? 0 : LongPages.andNot(page, sp.getPageForRead(pi), pageSize);
+            }
+        });
+        for(long pi: pages) {
+            tp.onPageUpdate(pi);
+        }
+        updated(firstWord(pages, tp), -delta);
+    }
+
+    /**
+     * Same as {@link #mult(BitMap)}, but pages are processed in parallel
+     * by tasks submitted to provided executor.
+     * <br/>
+     * Falls back to {@link #mult(BitMap)} unless both bit maps keep their pages on heap.
+     */
+    public void mult(BitMap that, ExecutorService executor) {
+        final LongPageArray tp = pageArray(this);
+        final LongPageArray sp = pageArray(that);
+        if (!compatible(tp, sp)) {
+            mult(that);
+            return;
+        }
+        final int pageSize = 1 << tp.getPageBits();
+        long[] pages = listPages(tp);
+        for(long pi: pages) {
+            tp.getPageForWrite(pi);
+        }
+        long delta = forEachPage(pages, executor, new PageTask() {
+            @Override
+            public long process(long pi) {
+                return multPage(tp.getPageForRead(pi), sp, pi, pageSize);
+            }
+        });
+        for(long pi: pages) {
+            tp.onPageUpdate(pi);
+        }
+        updated(firstWord(pages, tp), -delta);
+    }
+
+    /**
+     * @return words of bit map if they could be read without seeking bit by bit, <code>null</code> otherwise
+     */
+    private static LongArray directWords(BitMap bitmap) {
+        if (bitmap instanceof LongArrayBackedBitMap) {
+            return ((LongArrayBackedBitMap) bitmap).backingArray();
+        }
+        else if (bitmap instanceof BitSetAdapter) {
+            return ((BitSetAdapter) bitmap).words();
+        }
+        else {
+            return null;
+        }
+    }
+
+    private static LongPageArray pageArray(BitMap bitmap) {
+        if (bitmap instanceof LongArrayBackedBitMap) {
+            LongArray array = ((LongArrayBackedBitMap) bitmap).backingArray();
+            if (array instanceof LongPageArray) {
+                return (LongPageArray) array;
+            }
+        }
+        return null;
+    }
+
+    private static boolean compatible(LongPageArray a, LongPageArray b) {
+        return a != null && b != null && a.getPageBits() == b.getPageBits();
+    }
+
+    private static long[] listPages(LongPageArray array) {
+        long[] pages = new long[16];
+        int n = 0;
+        for(long pi = array.seekPage(0); pi >= 0; pi = array.seekPage(pi + 1)) {
+            if (n == pages.length) {
+                pages = Arrays.copyOf(pages, 2 * n);
+            }
+            pages[n++] = pi;
+        }
+        return Arrays.copyOf(pages, n);
+    }
+
+    /**
+     * @return sum of values returned by task
+     */
+    private static long forEachPage(final long[] pages, ExecutorService executor, final PageTask task) {
+        List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+        for(int i = 0; i < pages.length; i += PAGES_PER_TASK) {
+            final int from = i;
+            final int to = Math.min(pages.length, i + PAGES_PER_TASK);
+            tasks.add(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    long sum = 0;
+                    for(int j = from; j != to; ++j) {
+                        sum += task.process(pages[j]);
+                    }
+                    return sum;
+                }
+            });
+        }
+        try {
+            long sum = 0;
+            for(Future<Long> f: executor.invokeAll(tasks)) {
+                sum += f.get();
+            }
+            return sum;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            else {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    private interface PageTask {
+        
+        public long process(long pi);
+        
+    }
+
+    /**
+     * Should be called after modification of words starting from <code>word</code>.
+     * @param delta change in number of set bits
+     */
+    private void updated(long word, long delta) {
+        if (delta != 0) {
+            if (ones >= 0) {
+                ones += delta;
+            }
+            rankIndex.invalidate(word);
+        }
+    }
+
+    /**
+     * Keeps counters of other bit map valid after its backing array has been modified directly.
+     */
+    static void updated(BitMap bitmap, long word, long delta) {
+        if (bitmap instanceof PagedBitMap) {
+            ((PagedBitMap) bitmap).updated(word, delta);
+        }
+    }
+
+    private static long firstWord(long[] pages, LongPageArray array) {
+        return pages.length == 0 ? 0 : pages[0] << array.getPageBits();
+    }
+
+    /**
+     * @return number of set bits before <code>index</code>
+     */
+    public long rank(long index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative bit index: " + index);
+        }
+        return rankIndex.rank(index);
+    }
+
+    /**
+     * @return index of <code>k</code>-th set bit (counting from 0) or -1 if there are not enough set bits
+     */
+    public long select(long k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("Negative rank: " + k);
+        }
+        return rankIndex.select(k);
+    }
+
+    /**
+     * Point in time copy of this bit map.
+     * <br/>
+     * Heap backed bit map shares its pages with snapshot, so snapshot costs
+     * a copy of page directory and later writes to either bit map
+     * copy only pages they touch. Other bit maps are copied in full.
+     * <br/>
+     * Snapshot should be taken by writer thread and handed over to readers
+     * via a safe publication. It is not modified by writer afterwards.
+     * Until snapshot is modified, any number of threads could query it
+     * ({@link #get(long)}, {@link #seekOne(long)}, {@link #countOnes()},
+     * {@link #rank(long)}, {@link #select(long)}, cursors) without external synchronization.
+     * Number of set bits is counted by this call, rank index of snapshot is
+     * rebuilt by first rank or select query under index lock.
+     */
+    public PagedBitMap snapshot() {
+        PagedBitMap copy;
+        if (array instanceof LongPageArray) {
+            copy = new PagedBitMap(((LongPageArray) array).snapshot());
+            // count is cached by this bit map, so it is computed at most once
+            copy.ones = countOnes();
+            // only part of index after lowest modified word is rebuilt
+            copy.rankIndex.copyFrom(rankIndex);
+        }
+        else {
+            copy = new PagedBitMap(true);
+            copy.add(this);
+        }
+        return copy;
+    }
+
+    /**
+     * @return immutable compact copy of current content, safe to share between threads
+     */
+    public FrozenBitMap freeze() {
+        return FrozenBitMap.valueOf(this);
+    }
+
+    /**
+     * Cursor reads words of backing array directly.
+     */
+    @Override
+    public BitCursor cursor() {
+        return new LongArrayCursor(array);
+    }
+
     @Override
-    @SuppressWarnings("unused")
     public long countOnes() {
+        if (ones < 0) {
+            ones = recountOnes();
+        }
+        return ones;
+    }
+
+    private long recountOnes() {
+        if (array instanceof SerializedLongArray) {
+            return ((SerializedLongArray) array).countOnes();
+        }
+        if (array instanceof LongPageArray) {
+            LongPageArray pa = (LongPageArray) array;
+            int pageSize = 1 << pa.getPageBits();
+            long n = 0;
+            for(long pi = pa.seekPage(0); pi >= 0; pi = pa.seekPage(pi + 1)) {
+                n += LongPages.count(pa.getPageForRead(pi), pageSize);
+            }
+            return n;
+        }
         long n = 0;
-        for(Long l: ones()) {
-            ++n;
+        for(long i = array.seekNext(0); i >= 0; i = array.seekNext(i + 1)) {
+            n += Long.bitCount(array.get(i));
         }
         return n;
-    }    
+    }
 }
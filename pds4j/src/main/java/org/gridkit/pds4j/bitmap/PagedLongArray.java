@@ -26,72 +26,231 @@ import java.util.Arrays;
  * Array is used to lookup pages, which is limit
  * may bit space which could be practically addressed by
  * this array. 
+ * <br/>
+ * Each page carries a summary of its non-zero words (see {@link LongPages})
+ * and array keeps a summary of non-empty pages, so {@link #seekNext(long)}
+ * skips gaps a word at a time.
+ * <br/>
+ * Pages are dropped once they become empty, {@link #compact()}
+ * also shrinks page directory.
+ * <br/>
+ * Page keeps token of its owner in a word after summary,
+ * pages owned by other array are shared with a snapshot and
+ * copied before modification.
  *  
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  */
-class PagedLongArray implements LongArray {
-
-	private final static int PAGE_BITS = 10;
-	private final static int PAGE_MASK = ~(-1 << PAGE_BITS);
-	private final static int PAGE_SIZE = 1 << PAGE_BITS;
+class PagedLongArray implements LongPageArray {
 
 	public final static long NULL_VALUE = 0;
 
+	private final int pageBits;
+	private final int pageMask;
+	private final int pageSize;
+	private final int pageOwner;
+
 	protected long lastIndex = -1;
 	protected long[][] array = new long[16][];
+	// one bit per page with at least one non-zero word
+	protected long[] pageSummary = new long[1];
+	protected long owner = LongPages.newOwner();
+
+	public PagedLongArray() {
+	    this(LongPages.DEFAULT_PAGE_BITS);
+	}
+
+	/**
+	 * Page directory is a plain array, so array could hold words below
+	 * <code>2^(31 + pageBits)</code> only (i.e. bits below <code>2^(37 + pageBits)</code>).
+	 * Writes above that limit throw {@link IllegalArgumentException}.
+	 *
+	 * @param pageBits log2 of number of words in page
+	 */
+	public PagedLongArray(int pageBits) {
+	    LongPages.checkPageBits(pageBits);
+	    this.pageBits = pageBits;
+	    this.pageMask = ~(-1 << pageBits);
+	    this.pageSize = 1 << pageBits;
+	    this.pageOwner = LongPages.pageWords(pageSize);
+	}
 
 
     public long get(long n) {
-		int bi = (int) (n >> PAGE_BITS);
-		if (bi >= array.length) {
-			return NULL_VALUE;
+		long pi = n >> pageBits;
+		if (pi < 0) {
+		    throw new ArrayIndexOutOfBoundsException("" + n);
 		}
-		if (bi < 0) {
-		    throw new ArrayIndexOutOfBoundsException(bi);
+		if (pi >= array.length) {
+		    // nothing could be stored there
+			return NULL_VALUE;
 		}
-		long[] page = array[bi];
+		long[] page = array[(int) pi];
 		if (page == null) {
 			return NULL_VALUE;
 		}
-		return page[(int) (n & PAGE_MASK)];
+		return page[(int) (n & pageMask)];
 	}
 
     public long seekNext(long start) {
-        long n = start;
+        if (start < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + start);
+        }
+        if ((start >> pageBits) >= array.length) {
+            return -1;
+        }
+        int bi = (int) (start >> pageBits);
+        int wi = (int) (start & pageMask);
         while(true) {
-            int bi = (int) (n >> PAGE_BITS);
-            if (bi >= array.length) {
-                return -1;
-            }
-            if (bi < 0) {
-                throw new ArrayIndexOutOfBoundsException(bi);
-            }
             long[] page = array[bi];
-            if (page == null) {
-                n = PAGE_SIZE * (bi + 1);
-                continue;
+            if (page != null) {
+                int i = LongPages.seekNext(page, pageSize, wi);
+                if (i >= 0) {
+                    return (((long)bi) << pageBits) + i;
+                }
             }
-            if (page[(int) (n & PAGE_MASK)] != 0) {
-                return n;
+            bi = LongPages.nextBit(pageSummary, bi + 1);
+            if (bi < 0) {
+                return -1;
             }
-            ++n;
+            wi = 0;
         }
     }
 
     public void set(long n, long value) {
+		if (n < 0) {
+		    throw new ArrayIndexOutOfBoundsException("" + n);
+		}
+		int bi = pageIndex(n >> pageBits);
 		lastIndex = Math.max(lastIndex, n);
-		int bi = (int) (n >> PAGE_BITS);
-		if (bi >= array.length) {
-			array = Arrays.copyOf(array, bi + 1);
+		if (bi >= array.length && value == NULL_VALUE) {
+		    return;
 		}
+		ensureCapacity(bi);
 		long[] page = array[bi];
 		if (page == null) {
 		    if (value == NULL_VALUE) {
 		        return;
 		    }
-			array[bi] = page = new long[PAGE_SIZE];
-			Arrays.fill(page, NULL_VALUE);
+			array[bi] = page = newPage();
+		}
+		else if (page[pageOwner] != owner) {
+		    array[bi] = page = ownPage(page);
+		}
+		int wi = (int) (n & pageMask);
+		LongPages.set(page, pageSize, wi, value);
+		if (value != NULL_VALUE) {
+		    pageSummary[bi >> 6] |= 1l << bi;
+		}
+		else if (page[pageSize + (wi >> 6)] == 0 && LongPages.isEmpty(page, pageSize)) {
+		    pageSummary[bi >> 6] &= ~(1l << bi);
+		    array[bi] = null;
 		}
-		page[(int) (n & PAGE_MASK)] = value;
 	}
+
+    public int getPageBits() {
+        return pageBits;
+    }
+
+    public long[] getPageForRead(long pi) {
+        return pi < array.length ? array[(int) pi] : null;
+    }
+
+    public long[] getPageForWrite(long pi) {
+        int bi = pageIndex(pi);
+        ensureCapacity(bi);
+        long[] page = array[bi];
+        if (page == null) {
+            array[bi] = page = newPage();
+        }
+        else if (page[pageOwner] != owner) {
+            array[bi] = page = ownPage(page);
+        }
+        return page;
+    }
+
+    private int pageIndex(long pi) {
+        if (pi > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Page index " + pi + " is out of range for " + pageSize + " words pages");
+        }
+        return (int) pi;
+    }
+
+    private long[] newPage() {
+        long[] page = new long[pageOwner + 1];
+        page[pageOwner] = owner;
+        return page;
+    }
+
+    private long[] ownPage(long[] page) {
+        page = page.clone();
+        page[pageOwner] = owner;
+        return page;
+    }
+
+    public PagedLongArray snapshot() {
+        PagedLongArray copy = new PagedLongArray(pageBits);
+        copy.array = array.clone();
+        copy.pageSummary = pageSummary.clone();
+        copy.lastIndex = lastIndex;
+        // existing pages are shared from now on
+        owner = LongPages.newOwner();
+        return copy;
+    }
+
+    /**
+     * @return index of first non-empty page at or after <code>pi</code> or -1
+     */
+    public long seekPage(long pi) {
+        return pi > Integer.MAX_VALUE ? -1 : LongPages.nextBit(pageSummary, (int) pi);
+    }
+
+    public void onPageUpdate(long pi) {
+        long[] page = getPageForRead(pi);
+        int bi = (int) pi;
+        if (page != null && !LongPages.isEmpty(page, pageSize)) {
+            pageSummary[bi >> 6] |= 1l << bi;
+            lastIndex = Math.max(lastIndex, (pi << pageBits) | pageMask);
+        }
+        else if (page != null) {
+            pageSummary[bi >> 6] &= ~(1l << bi);
+            array[bi] = null;
+        }
+    }
+
+    private void ensureCapacity(int bi) {
+        if (bi >= array.length) {
+            array = Arrays.copyOf(array, Math.max(bi + 1, 2 * array.length));
+            if ((array.length >> 6) >= pageSummary.length) {
+                pageSummary = Arrays.copyOf(pageSummary, (array.length >> 6) + 1);
+            }
+        }
+    }
+
+    public void compact() {
+        int last = -1;
+        for(int bi = 0; bi != array.length; ++bi) {
+            long[] page = array[bi];
+            if (page != null) {
+                if (LongPages.isEmpty(page, pageSize)) {
+                    array[bi] = null;
+                    pageSummary[bi >> 6] &= ~(1l << bi);
+                }
+                else {
+                    last = bi;
+                }
+            }
+        }
+        int len = Math.max(16, last + 1);
+        if (len < array.length) {
+            array = Arrays.copyOf(array, len);
+            pageSummary = Arrays.copyOf(pageSummary, (len >> 6) + 1);
+        }
+        lastIndex = last < 0 ? -1 : Math.min(lastIndex, (((long) last) << pageBits) | pageMask);
+    }
+
+    public void release() {
+        array = new long[16][];
+        pageSummary = new long[1];
+        lastIndex = -1;
+    }
 }
@@ -0,0 +1,187 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Sampled cumulative count of set bits over {@link LongArray} words,
+ * used for rank and select queries in {@link PagedBitMap}.
+ * <br/>
+ * Words are grouped in blocks of {@link #BLOCK_WORDS}, index
+ * keeps number of set bits preceding each non-empty block.
+ * Mutations only record lowest modified word, index is rebuilt from
+ * that block on next query.
+ * <br/>
+ * Rebuild is synchronized and completion is published through volatile
+ * {@link #dirty} field, so while array is not modified any number of
+ * threads may query index concurrently.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class RankIndex {
+
+    private final static int BLOCK_BITS = 10;
+    final static int BLOCK_WORDS = 1 << BLOCK_BITS;
+
+    private final LongArray array;
+
+    // sorted indexes of non-empty blocks
+    private long[] blocks = new long[16];
+    // number of set bits before block
+    private long[] ranks = new long[16];
+    private int size;
+    private long total;
+
+    // lowest word modified since last rebuild, Long.MAX_VALUE if index is up to date
+    private volatile long dirty = 0;
+
+    public RankIndex(LongArray array) {
+        this.array = array;
+    }
+
+    public void invalidate(long word) {
+        if (word < dirty) {
+            dirty = word;
+        }
+    }
+
+    /**
+     * @return number of set bits before <code>index</code>
+     */
+    public long rank(long index) {
+        if (dirty != Long.MAX_VALUE) {
+            update();
+        }
+        long wi = index >>> 6;
+        int p = Arrays.binarySearch(blocks, 0, size, wi >>> BLOCK_BITS);
+        if (p < 0) {
+            // block is empty, count everything before it
+            p = -(p + 1);
+            return p < size ? ranks[p] : total;
+        }
+        long r = ranks[p];
+        long n = blocks[p] << BLOCK_BITS;
+        while(true) {
+            n = array.seekNext(n);
+            if (n < 0 || n >= wi) {
+                break;
+            }
+            r += Long.bitCount(array.get(n));
+            ++n;
+        }
+        if ((index & 63) != 0) {
+            r += Long.bitCount(array.get(wi) & (-1l >>> (64 - (index & 63))));
+        }
+        return r;
+    }
+
+    /**
+     * @return index of <code>k</code>-th (starting from 0) set bit or -1
+     */
+    public long select(long k) {
+        if (dirty != Long.MAX_VALUE) {
+            update();
+        }
+        if (k < 0 || k >= total) {
+            return -1;
+        }
+        // last block starting at or before k-th bit
+        int p = Arrays.binarySearch(ranks, 0, size, k);
+        if (p < 0) {
+            p = -(p + 1) - 1;
+        }
+        long r = k - ranks[p];
+        long n = blocks[p] << BLOCK_BITS;
+        while(true) {
+            n = array.seekNext(n);
+            long w = array.get(n);
+            int c = Long.bitCount(w);
+            if (r < c) {
+                while(r > 0) {
+                    w &= w - 1;
+                    --r;
+                }
+                return (n << 6) + Long.numberOfTrailingZeros(w);
+            }
+            r -= c;
+            ++n;
+        }
+    }
+
+    /**
+     * Brings index up to date, after that queries do not modify index
+     * until next mutation.
+     */
+    public synchronized void update() {
+        if (dirty == Long.MAX_VALUE) {
+            return;
+        }
+        long db = dirty >>> BLOCK_BITS;
+        int p = Arrays.binarySearch(blocks, 0, size, db);
+        if (p < 0) {
+            p = -(p + 1);
+        }
+        long r = p < size ? ranks[p] : total;
+        size = p;
+        long block = -1;
+        long n = db << BLOCK_BITS;
+        while(true) {
+            n = array.seekNext(n);
+            if (n < 0) {
+                break;
+            }
+            long w = array.get(n);
+            if ((n >>> BLOCK_BITS) != block) {
+                block = n >>> BLOCK_BITS;
+                append(block, r);
+            }
+            r += Long.bitCount(w);
+            ++n;
+        }
+        total = r;
+        dirty = Long.MAX_VALUE;
+    }
+
+    private void append(long block, long rank) {
+        if (size == blocks.length) {
+            blocks = Arrays.copyOf(blocks, 2 * size);
+            ranks = Arrays.copyOf(ranks, 2 * size);
+        }
+        blocks[size] = block;
+        ranks[size] = rank;
+        ++size;
+    }
+
+    /**
+     * Copies state of other index, which should be built over array with same content.
+     */
+    public synchronized void copyFrom(RankIndex that) {
+        blocks = Arrays.copyOf(that.blocks, Math.max(16, that.size));
+        ranks = Arrays.copyOf(that.ranks, Math.max(16, that.size));
+        size = that.size;
+        total = that.total;
+        dirty = that.dirty;
+    }
+
+    public synchronized void reset() {
+        blocks = new long[16];
+        ranks = new long[16];
+        size = 0;
+        total = 0;
+        dirty = 0;
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.util.Arrays;
+
+/**
+ * Chunk kept as sorted list of runs of ones.
+ * <br/>
+ * Runs are stored as pairs of first and last offset (both inclusive)
+ * in single array.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class RunContainer extends Container {
+
+    private char[] runs;
+    private int runCount;
+    private int cardinality;
+
+    RunContainer(char[] runs, int runCount, int cardinality) {
+        this.runs = runs;
+        this.runCount = runCount;
+        this.cardinality = cardinality;
+    }
+
+    static RunContainer valueOf(long[] words) {
+        char[] runs = new char[2 * runCount(words)];
+        int n = 0;
+        int card = 0;
+        int i = nextOne(words, 0);
+        while(i >= 0) {
+            int e = nextZero(words, i);
+            runs[2 * n] = (char) i;
+            runs[2 * n + 1] = (char) (e - 1);
+            ++n;
+            card += e - i;
+            i = e < CHUNK_SIZE ? nextOne(words, e) : -1;
+        }
+        return new RunContainer(runs, n, card);
+    }
+
+    @Override
+    protected int kind() {
+        return RUNS;
+    }
+
+    @Override
+    public int cardinality() {
+        return cardinality;
+    }
+
+    @Override
+    public int runCount() {
+        return runCount;
+    }
+
+    private int start(int run) {
+        return runs[2 * run];
+    }
+
+    private int last(int run) {
+        return runs[2 * run + 1];
+    }
+
+    /**
+     * @return last run starting at or before <code>i</code> or -1
+     */
+    private int lookup(int i) {
+        int lo = 0;
+        int hi = runCount - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (start(mid) <= i) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
+    @Override
+    public boolean get(int i) {
+        int r = lookup(i);
+        return r >= 0 && i <= last(r);
+    }
+
+    @Override
+    public Container set(int i) {
+        int r = lookup(i);
+        if (r >= 0 && i <= last(r)) {
+            return this;
+        }
+        ++cardinality;
+        boolean extendPrev = r >= 0 && last(r) + 1 == i;
+        boolean extendNext = r + 1 < runCount && start(r + 1) - 1 == i;
+        if (extendPrev && extendNext) {
+            runs[2 * r + 1] = runs[2 * r + 3];
+            removeRun(r + 1);
+        }
+        else if (extendPrev) {
+            runs[2 * r + 1] = (char) i;
+        }
+        else if (extendNext) {
+            runs[2 * r + 2] = (char) i;
+        }
+        else {
+            insertRun(r + 1, i, i);
+        }
+        return checkSize();
+    }
+
+    @Override
+    public Container clear(int i) {
+        int r = lookup(i);
+        if (r < 0 || i > last(r)) {
+            return this;
+        }
+        --cardinality;
+        int s = start(r);
+        int l = last(r);
+        if (s == l) {
+            removeRun(r);
+        }
+        else if (s == i) {
+            runs[2 * r] = (char) (i + 1);
+        }
+        else if (l == i) {
+            runs[2 * r + 1] = (char) (i - 1);
+        }
+        else {
+            runs[2 * r + 1] = (char) (i - 1);
+            insertRun(r + 1, i + 1, l);
+        }
+        return checkSize();
+    }
+
+    private void insertRun(int r, int s, int l) {
+        if (2 * runCount + 2 > runs.length) {
+            runs = Arrays.copyOf(runs, Math.max(4, 2 * runs.length));
+        }
+        System.arraycopy(runs, 2 * r, runs, 2 * r + 2, 2 * (runCount - r));
+        runs[2 * r] = (char) s;
+        runs[2 * r + 1] = (char) l;
+        ++runCount;
+    }
+
+    private void removeRun(int r) {
+        System.arraycopy(runs, 2 * r + 2, runs, 2 * r, 2 * (runCount - r - 1));
+        --runCount;
+    }
+
+    private Container checkSize() {
+        // fragmented run list is converted back to bitmap or array
+        if (4 * runCount > 8 * WORDS) {
+            return optimize();
+        }
+        return this;
+    }
+
+    @Override
+    public int seek(int i) {
+        if (i >= CHUNK_SIZE) {
+            return -1;
+        }
+        int r = lookup(i);
+        if (r >= 0 && i <= last(r)) {
+            return i;
+        }
+        return r + 1 < runCount ? start(r + 1) : -1;
+    }
+
+    @Override
+    public void fill(long[] words) {
+        for(int r = 0; r != runCount; ++r) {
+            fillRange(words, start(r), last(r) + 1);
+        }
+    }
+
+    @Override
+    public Container copy() {
+        return new RunContainer(Arrays.copyOf(runs, 2 * runCount), runCount, cardinality);
+    }
+}
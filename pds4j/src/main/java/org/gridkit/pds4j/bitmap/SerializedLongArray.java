@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Read only {@link LongArray} over a buffer in {@link BitMapFormat}.
+ * Data is not copied, pages are located via binary search in directory.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class SerializedLongArray implements LongArray {
+
+    private final ByteBuffer buffer;
+    private final int pageBits;
+    private final int pageSize;
+    private final int pageBytes;
+    private final int pageCount;
+    private final int directoryOffset;
+    private final long ones;
+
+    public SerializedLongArray(ByteBuffer source) {
+        this.buffer = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int limit = buffer.limit();
+        if (limit < BitMapFormat.HEADER_SIZE + BitMapFormat.TRAILER_SIZE
+            || buffer.getLong(0) != BitMapFormat.MAGIC
+            || buffer.getLong(limit - 8) != BitMapFormat.MAGIC) {
+            throw new IllegalArgumentException("Buffer does not contain serialized bit map");
+        }
+        this.pageBits = buffer.getInt(8);
+        this.pageSize = 1 << pageBits;
+        this.pageBytes = 8 * LongPages.pageWords(pageSize);
+        this.pageCount = (int) buffer.getLong(limit - BitMapFormat.TRAILER_SIZE);
+        this.ones = buffer.getLong(limit - BitMapFormat.TRAILER_SIZE + 8);
+        this.directoryOffset = BitMapFormat.HEADER_SIZE + pageCount * pageBytes;
+        if (directoryOffset + 8 * pageCount + BitMapFormat.TRAILER_SIZE != limit) {
+            throw new IllegalArgumentException("Serialized bit map is corrupted");
+        }
+    }
+
+    /**
+     * @return number of ones recorded on serialization
+     */
+    public long countOnes() {
+        return ones;
+    }
+
+    public long get(long n) {
+        if (n < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + n);
+        }
+        int p = findPage(n >>> pageBits);
+        if (p < 0) {
+            return 0;
+        }
+        return buffer.getLong(pageOffset(p) + 8 * (int) (n & (pageSize - 1)));
+    }
+
+    public long seekNext(long start) {
+        if (start < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + start);
+        }
+        long bi = start >>> pageBits;
+        int p = findPage(bi);
+        int wi = (int) (start & (pageSize - 1));
+        if (p < 0) {
+            p = -p - 1;
+            wi = 0;
+        }
+        for(; p < pageCount; ++p) {
+            int i = LongPages.seekNext(buffer, pageOffset(p), pageSize, wi);
+            if (i >= 0) {
+                return (pageIndex(p) << pageBits) + i;
+            }
+            wi = 0;
+        }
+        return -1;
+    }
+
+    public void set(long n, long value) {
+        throw new UnsupportedOperationException("Bit map is read only");
+    }
+
+    public void compact() {
+        // read only
+    }
+
+    public void release() {
+        // buffer is owned by caller
+    }
+
+    private long pageIndex(int p) {
+        return buffer.getLong(directoryOffset + 8 * p);
+    }
+
+    private int pageOffset(int p) {
+        return BitMapFormat.HEADER_SIZE + p * pageBytes;
+    }
+
+    private int findPage(long bi) {
+        int lo = 0;
+        int hi = pageCount - 1;
+        while(lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long pi = pageIndex(mid);
+            if (pi < bi) {
+                lo = mid + 1;
+            }
+            else if (pi > bi) {
+                hi = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+}
@@ -16,10 +16,6 @@
 package org.gridkit.pds4j.bitmap;
 
 
-import java.util.Arrays;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 /**
  * Very much like {@link PagedLongArray}, but
@@ -29,29 +25,62 @@ import java.util.TreeMap;
  * <br/>
  * Hash would be more efficient for lookup, but
  * bit seek operation requires traversing pages in memory order. 
+ * Radix tree ({@link PageDirectory}) is used, so neither lookup
+ * nor traversal allocate.
+ * <br/>
+ * Last accessed page is cached, so sequential and clustered access
+ * mostly skips directory lookup. Page keeps its own index in a word
+ * after summary, so cache is a single reference and is never torn.
+ * <br/>
+ * Pages carry summary of non-zero words (see {@link LongPages}),
+ * so seek does not scan page word by word.
+ * Pages are removed from tree once they become empty.
+ * <br/>
+ * Page also keeps token of its owner, pages owned by other array
+ * are shared with a snapshot and copied before modification.
  * 
  * @author Alexey Ragozin (alexey.ragozin@gmail.com)
  *
  */
-class SparsePagedLongArray implements LongArray {
-
-	private final static int PAGE_BITS = 10;
-	private final static int PAGE_MASK = ~(-1 << PAGE_BITS);
-	private final static int PAGE_SIZE = 1 << PAGE_BITS;
+class SparsePagedLongArray implements LongPageArray {
 
 	public final static long NULL_VALUE = 0;
 
+	private final int pageBits;
+	private final int pageMask;
+	private final int pageSize;
+	private final int pageIndex;
+	private final int pageOwner;
+
 	// originally this class was written to keep sets of memory address from JVM heap dump
 	// some OS (Solaris in particular) allocates high memory ranges in 64 bit space
 	// so I have to use tree instead of array for tracking pages of bits. 
-	protected SortedMap<Long, long[]> pages = new TreeMap<Long, long[]>();
+	protected PageDirectory<long[]> pages = new PageDirectory<long[]>();
 	protected long lastIndex = -1;
+	protected long[] lastPage;
+	protected long owner = LongPages.newOwner();
+
+	public SparsePagedLongArray() {
+	    this(LongPages.DEFAULT_PAGE_BITS);
+	}
+
+	/**
+	 * @param pageBits log2 of number of words in page
+	 */
+	public SparsePagedLongArray(int pageBits) {
+	    LongPages.checkPageBits(pageBits);
+	    this.pageBits = pageBits;
+	    this.pageMask = ~(-1 << pageBits);
+	    this.pageSize = 1 << pageBits;
+	    this.pageIndex = LongPages.pageWords(pageSize);
+	    this.pageOwner = pageIndex + 1;
+	}
 
     public long get(long n) {
         if (n > lastIndex) {
             return NULL_VALUE;
         }
-		long bi = n >>> PAGE_BITS;
+		long bi = n >>> pageBits;
 		if (bi < 0) {
 		    throw new ArrayIndexOutOfBoundsException("" + bi);
 		}
@@ -59,21 +88,17 @@ class SparsePagedLongArray implements LongArray {
 		if (page == null) {
 			return NULL_VALUE;
 		}
-		return page[(int) (n & PAGE_MASK)];
+		return page[(int) (n & pageMask)];
 	}
 
     public long seekNext(long start) {
-        long startPage = start >> PAGE_BITS;
-        SortedMap<Long, long[]> pages = this.pages.tailMap(startPage);
-        for(Map.Entry<Long, long[]> entry: pages.entrySet()) {
-            long pi = entry.getKey();
-            long[] page = entry.getValue();
-            long ps = ((long)pi) << PAGE_BITS;
-            long pe = ps + PAGE_SIZE;
-            for(long i = Math.max(ps, start); i != pe; ++i) {
-                if (page[(int) (i & PAGE_MASK)] != 0) {
-                    return i;
-                }
+        long startPage = start >> pageBits;
+        for(long pi = pages.nextKey(startPage); pi >= 0; pi = pages.nextKey(pi + 1)) {
+            long[] page = pages.get(pi);
+            int wi = pi == startPage ? (int) (start & pageMask) : 0;
+            int i = LongPages.seekNext(page, pageSize, wi);
+            if (i >= 0) {
+                return (pi << pageBits) + i;
             }
         }
         return -1;
@@ -81,28 +106,90 @@ class SparsePagedLongArray implements LongArray {
 
     public void set(long n, long value) {
 		lastIndex = Math.max(lastIndex, n);
-		long bi = n >>> PAGE_BITS;
-		long[] page = value == NULL_VALUE ? getPageForRead(bi) : getPageForWrite(bi);
-		if (page == null && value == NULL_VALUE) {
-		    if (value == NULL_VALUE) {
-		        return;
-		    }
+		long bi = n >>> pageBits;
+		if (value == NULL_VALUE && getPageForRead(bi) == null) {
+		    return;
+		}
+		long[] page = getPageForWrite(bi);
+		int wi = (int) (n & pageMask);
+		LongPages.set(page, pageSize, wi, value);
+		if (value == NULL_VALUE && page[pageSize + (wi >> 6)] == 0 && LongPages.isEmpty(page, pageSize)) {
+		    removePage(bi);
 		}
-		page[(int) (n & PAGE_MASK)] = value;
 	}
 
-    protected long[] getPageForRead(long bi) {
-        long[] page = pages.get(bi);
+    public int getPageBits() {
+        return pageBits;
+    }
+
+    public long[] getPageForRead(long bi) {
+        long[] page = lastPage;
+        if (page != null && page[pageIndex] == bi) {
+            return page;
+        }
+        page = pages.get(bi);
+        if (page != null) {
+            lastPage = page;
+        }
         return page;
     }
 
-    protected long[] getPageForWrite(long bi) {
-        long[] page = pages.get(bi);
+    public long[] getPageForWrite(long bi) {
+        long[] page = getPageForRead(bi);
         if (page == null) {
-            page = new long[PAGE_SIZE];
+            page = new long[pageOwner + 1];
+            page[pageIndex] = bi;
+            page[pageOwner] = owner;
+            pages.put(bi, page);
+            lastPage = page;
+            lastIndex = Math.max(lastIndex, (bi << pageBits) | pageMask);
+        }
+        else if (page[pageOwner] != owner) {
+            page = page.clone();
+            page[pageOwner] = owner;
             pages.put(bi, page);
-            Arrays.fill(page, NULL_VALUE);
-        }        
+            lastPage = page;
+        }
         return page;
     }
+
+    private void removePage(long bi) {
+        pages.remove(bi);
+        lastPage = null;
+    }
+
+    public long seekPage(long pi) {
+        return pages.nextKey(pi);
+    }
+
+    public void onPageUpdate(long pi) {
+        long[] page = pages.get(pi);
+        if (page != null && LongPages.isEmpty(page, pageSize)) {
+            removePage(pi);
+        }
+    }
+
+    public SparsePagedLongArray snapshot() {
+        SparsePagedLongArray copy = new SparsePagedLongArray(pageBits);
+        copy.pages = pages.copy();
+        copy.lastIndex = lastIndex;
+        // existing pages are shared from now on
+        owner = LongPages.newOwner();
+        return copy;
+    }
+
+    public void compact() {
+        for(long pi = pages.nextKey(0); pi >= 0; pi = pages.nextKey(pi + 1)) {
+            if (LongPages.isEmpty(pages.get(pi), pageSize)) {
+                removePage(pi);
+            }
+        }
+        lastIndex = pages.isEmpty() ? -1 : Math.min(lastIndex, (pages.lastKey() << pageBits) | pageMask);
+    }
+
+    public void release() {
+        pages.clear();
+        lastPage = null;
+        lastIndex = -1;
+    }
 }
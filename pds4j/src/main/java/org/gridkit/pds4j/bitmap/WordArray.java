@@ -0,0 +1,62 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Read only {@link LongArray} over plain array of words,
+ * e.g. words exported from {@link java.util.BitSet}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class WordArray implements LongArray {
+
+    private final long[] words;
+
+    public WordArray(long[] words) {
+        this.words = words;
+    }
+
+    public long get(long n) {
+        if (n < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + n);
+        }
+        return n < words.length ? words[(int) n] : 0;
+    }
+
+    public long seekNext(long start) {
+        if (start < 0) {
+            throw new ArrayIndexOutOfBoundsException("" + start);
+        }
+        for(long n = start; n < words.length; ++n) {
+            if (words[(int) n] != 0) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    public void set(long n, long value) {
+        throw new UnsupportedOperationException("Array is read only");
+    }
+
+    public void release() {
+        // nothing to release
+    }
+
+    public void compact() {
+        // nothing to compact
+    }
+}
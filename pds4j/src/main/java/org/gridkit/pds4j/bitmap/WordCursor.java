@@ -0,0 +1,97 @@
+/**
+ * Copyright 2014-2016 Alexey Ragozin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gridkit.pds4j.bitmap;
+
+/**
+ * Iterates non-zero 64 bit words of a bit map.
+ * Words of {@link LongArrayBackedBitMap} are read directly,
+ * other bit maps are assembled from {@link BitMap#seekOne(long)}.
+ *
+ * @author Alexey Ragozin (alexey.ragozin@gmail.com)
+ */
+class WordCursor {
+
+    private final BitMap bitmap;
+    private final LongArray array;
+    private long index = -1;
+    private long word;
+    private long nextBit;
+    private boolean done;
+
+    public WordCursor(BitMap bitmap) {
+        this.bitmap = bitmap;
+        if (bitmap instanceof LongArrayBackedBitMap) {
+            this.array = ((LongArrayBackedBitMap) bitmap).backingArray();
+        }
+        else if (bitmap instanceof BitSetAdapter) {
+            this.array = ((BitSetAdapter) bitmap).words();
+        }
+        else {
+            this.array = null;
+        }
+        this.nextBit = array == null ? bitmap.seekOne(0) : -1;
+    }
+
+    /**
+     * @return index of next non-zero word or -1
+     */
+    public long next() {
+        return seek(index + 1);
+    }
+
+    /**
+     * Moves cursor to first non-zero word at or after <code>wi</code>.
+     * @return index of that word or -1
+     */
+    public long seek(long wi) {
+        if (done) {
+            return -1;
+        }
+        if (array != null) {
+            index = array.seekNext(wi);
+            word = index < 0 ? 0 : array.get(index);
+            done = index < 0;
+            return index;
+        }
+        if (nextBit >= 0 && (nextBit >>> 6) < wi) {
+            nextBit = bitmap.seekOne(wi << 6);
+        }
+        if (nextBit < 0) {
+            index = -1;
+            word = 0;
+            done = true;
+            return -1;
+        }
+        index = nextBit >>> 6;
+        word = 0;
+        while(nextBit >= 0 && (nextBit >>> 6) == index) {
+            word |= 1l << nextBit;
+            nextBit = bitmap.seekOne(nextBit + 1);
+        }
+        return index;
+    }
+
+    /**
+     * @return index of current word, -1 if cursor is exhausted
+     */
+    public long index() {
+        return index;
+    }
+
+    public long word() {
+        return word;
+    }
+}
@@ -17,9 +17,38 @@ package org.gridkit.pds4j.bitset;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gridkit.pds4j.bitmap.BitCounter;
+import org.gridkit.pds4j.bitmap.BitCursor;
 import org.gridkit.pds4j.bitmap.BitMap;
+import org.gridkit.pds4j.bitmap.BitVisitor;
+import org.gridkit.pds4j.bitmap.BitMaps;
+import org.gridkit.pds4j.bitmap.BitSlicedIndex;
+import org.gridkit.pds4j.bitmap.CompressedBitMap;
+import org.gridkit.pds4j.bitmap.ContainerBitMap;
+import org.gridkit.pds4j.bitmap.FrozenBitMap;
+import org.gridkit.pds4j.bitmap.LazyBitMap;
 import org.gridkit.pds4j.bitmap.PagedBitMap;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 public class BitMapTest {
@@ -106,4 +135,1297 @@ public class BitMapTest {
         assertThat(pbm.get(40)).isTrue();
         assertThat(pbm.get(60)).isFalse();
     }
+
+    @Test
+    public void seek_over_gaps_semi_sparse() {
+        verifySeekOverGaps(BitMaps.semiSparceBitmap());
+    }
+
+    @Test
+    public void seek_over_gaps_sparse() {
+        verifySeekOverGaps(BitMaps.sparseBitMap());
+    }
+
+    @Test
+    public void custom_page_size() {
+        for(int pageBits: new int[] {6, 8, 14}) {
+            verifySeekOverGaps(BitMaps.sparseBitMap(pageBits));
+            verifySeekOverGaps(BitMaps.semiSparceBitmap(pageBits));
+            verifyCustomPageSize(BitMaps.sparseBitMap(pageBits), BitMaps.sparseBitMap(pageBits));
+            verifyCustomPageSize(BitMaps.semiSparceBitmap(pageBits), new PagedBitMap(true));
+        }
+        try {
+            BitMaps.sparseBitMap(5);
+            Assert.fail("Exception expected");
+        }
+        catch(IllegalArgumentException e) {
+            // expected
+        }
+
+        // array directory addresses 2^31 pages, bits below 2^(37 + pageBits)
+        PagedBitMap dense = BitMaps.semiSparceBitmap(6);
+        try {
+            dense.set(1l << 43, true);
+            Assert.fail("Exception expected");
+        }
+        catch(IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            dense.set(1l << 44, true);
+            Assert.fail("Exception expected");
+        }
+        catch(IllegalArgumentException e) {
+            // expected
+        }
+        dense.set((1l << 20) - 1, true);
+        assertThat(dense.get(0)).isFalse();
+        assertThat(dense.get(1l << 44)).isFalse();
+        assertThat(dense.seekOne(0)).isEqualTo((1l << 20) - 1);
+        assertThat(dense.seekOne(1l << 20)).isEqualTo(-1);
+        assertThat(dense.seekOne(1l << 44)).isEqualTo(-1);
+        assertThat(dense.countOnes()).isEqualTo(1);
+
+        PagedBitMap sparse = BitMaps.sparseBitMap(6);
+        sparse.set(1l << 44, true);
+        assertThat(sparse.get(0)).isFalse();
+        assertThat(sparse.seekOne(0)).isEqualTo(1l << 44);
+    }
+
+    private void verifyCustomPageSize(PagedBitMap bitmap, PagedBitMap other) {
+        Random rnd = new Random(17);
+        BitSet ref = randomBits(rnd);
+        BitSet ref2 = randomBits(rnd);
+        bitmap.add(toPagedBitMap(ref));
+        other.add(toPagedBitMap(ref2));
+        verifySame(ref, bitmap);
+
+        PagedBitMap snapshot = bitmap.snapshot();
+        bitmap.add(other);
+        ref.or(ref2);
+        verifySame(ref, bitmap);
+        bitmap.setRange(1000, 300000);
+        ref.set(1000, 300000);
+        bitmap.clearRange(5000, 200000);
+        ref.clear(5000, 200000);
+        verifySame(ref, bitmap);
+        bitmap.mult(other);
+        ref.and(ref2);
+        verifySame(ref, bitmap);
+        bitmap.sub(other);
+        verifySame(new BitSet(), bitmap);
+        assertThat(snapshot.countOnes()).isEqualTo(snapshot.freeze().countOnes());
+    }
+
+    @Test
+    public void sparse_full_address_range() {
+        Random rnd = new Random(1);
+        BitMap pbm = BitMaps.sparseBitMap();
+        TreeSet<Long> ref = new TreeSet<Long>();
+        for(int i = 0; i != 20000; ++i) {
+            // cluster some bits, scatter others over whole positive range
+            long n = i % 2 == 0 ? rnd.nextLong() & Long.MAX_VALUE : (rnd.nextLong() & ((1l << 40) - 1));
+            pbm.set(n, true);
+            ref.add(n);
+        }
+        pbm.set(Long.MAX_VALUE, true);
+        ref.add(Long.MAX_VALUE);
+        verifySameLongs(ref, pbm);
+
+        int k = 0;
+        for(Long n: ref.toArray(new Long[0])) {
+            if (++k % 3 == 0) {
+                pbm.set(n, false);
+                ref.remove(n);
+                assertThat(pbm.get(n)).isFalse();
+                assertThat(pbm.get(n ^ 1)).isEqualTo(ref.contains(n ^ 1));
+            }
+        }
+        verifySameLongs(ref, pbm);
+    }
+
+    @Test
+    public void sparse_page_reuse() {
+        BitMap pbm = BitMaps.sparseBitMap();
+        long base = 3l << 50;
+        for(int round = 0; round != 3; ++round) {
+            // page is dropped once empty and created again by next write
+            pbm.set(base + 5, true);
+            pbm.set(base + 7, true);
+            pbm.set(base + 5, false);
+            pbm.set(base + 7, false);
+            assertThat(pbm.seekOne(0)).isEqualTo(-1);
+            pbm.set(base + 9, true);
+            assertThat(pbm.get(base + 9)).isTrue();
+            assertThat(pbm.seekOne(0)).isEqualTo(base + 9);
+            assertThat(pbm.get(base + 9 + (1 << 16))).isFalse();
+            pbm.set(base + 9, false);
+            base += 1 << 16;
+        }
+        assertThat(pbm.countOnes()).isEqualTo(0);
+    }
+
+    private void verifySameLongs(TreeSet<Long> ref, BitMap pbm) {
+        long n = pbm.seekOne(0);
+        for(Long i: ref) {
+            assertThat(n).isEqualTo(i);
+            assertThat(pbm.get(i)).isTrue();
+            n = i == Long.MAX_VALUE ? -1 : pbm.seekOne(n + 1);
+        }
+        assertThat(n).isEqualTo(-1);
+        assertThat(pbm.countOnes()).isEqualTo(ref.size());
+    }
+
+    @Test
+    public void seek_over_gaps_off_heap() {
+        PagedBitMap pbm = BitMaps.offHeapBitMap();
+        verifySeekOverGaps(pbm);
+        pbm.release();
+        assertThat(pbm.seekOne(0)).isEqualTo(-1);
+        pbm.set(100, true);
+        assertThat(pbm.seekOne(0)).isEqualTo(100);
+        pbm.release();
+    }
+
+    @Test
+    public void mapped_bitmap_reopen() throws IOException {
+        verifyMappedReopen(false);
+        verifyMappedReopen(true);
+    }
+
+    @Test
+    public void serialize_to_stream() throws IOException {
+        BitSet ref = randomBits(new Random(1));
+        BitMap pbm = toPagedBitMap(ref);
+        pbm.set(1l << 40, true);
+        ref.set(1 << 30);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        BitMaps.write(pbm, bos);
+        BitMap sbm = BitMaps.wrap(ByteBuffer.wrap(bos.toByteArray()));
+        assertThat(sbm.get(1l << 40)).isTrue();
+        assertThat(sbm.seekOne(1 << 30)).isEqualTo(1l << 40);
+
+        BitMap copy = BitMaps.sparseBitMap();
+        copy.add(sbm);
+        copy.set(1l << 40, false);
+        copy.set(1 << 30, true);
+        verifySame(ref, copy);
+
+        // non paged bit map
+        bos.reset();
+        BitMaps.write(toContainerBitMap(ref), bos);
+        verifySame(ref, BitMaps.wrap(ByteBuffer.wrap(bos.toByteArray())));
+    }
+
+    @Test
+    public void serialize_to_file() throws IOException {
+        File file = File.createTempFile("bitmap", ".bin");
+        try {
+            BitSet ref = randomBits(new Random(1));
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                BitMaps.write(toPagedBitMap(ref), raf.getChannel());
+                BitMap sbm = BitMaps.wrap(raf.getChannel().map(MapMode.READ_ONLY, 0, raf.length()));
+                verifySame(ref, sbm);
+            }
+            finally {
+                raf.close();
+            }
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private void verifyMappedReopen(boolean sparse) throws IOException {
+        File file = File.createTempFile("bitmap", ".bin");
+        try {
+            BitSet ref = randomBits(new Random(1));
+            PagedBitMap pbm = BitMaps.mappedBitMap(file, sparse);
+            for(int i = ref.nextSetBit(0); i >= 0; i = ref.nextSetBit(i + 1)) {
+                pbm.set(i, true);
+            }
+            verifySame(ref, pbm);
+            pbm.release();
+
+            pbm = BitMaps.mappedBitMap(file, sparse);
+            verifySame(ref, pbm);
+            pbm.set(3l << 40, sparse);
+            assertThat(pbm.get(3l << 40)).isEqualTo(sparse);
+            pbm.release();
+
+            // released bit map is closed, content is available by opening file again
+            pbm.release();
+            try {
+                pbm.get(ref.nextSetBit(0));
+                Assert.fail("Exception expected");
+            }
+            catch(IllegalStateException e) {
+                // expected
+            }
+            try {
+                pbm.seekOne(0);
+                Assert.fail("Exception expected");
+            }
+            catch(IllegalStateException e) {
+                // expected
+            }
+            try {
+                pbm.set(0, true);
+                Assert.fail("Exception expected");
+            }
+            catch(IllegalStateException e) {
+                // expected
+            }
+            pbm = BitMaps.mappedBitMap(file, sparse);
+            assertThat(pbm.get(3l << 40)).isEqualTo(sparse);
+            pbm.set(3l << 40, false);
+            verifySame(ref, pbm);
+            pbm.release();
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void seek_over_gaps_concurrent() {
+        verifySeekOverGaps(BitMaps.concurrentBitMap());
+    }
+
+    @Test
+    public void concurrent_marking() throws InterruptedException {
+        final BitMap bm = BitMaps.concurrentBitMap();
+        final AtomicLong marked = new AtomicLong();
+        final int len = 1 << 20;
+        Thread[] threads = new Thread[8];
+        for(int t = 0; t != threads.length; ++t) {
+            final int seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random rnd = new Random(seed);
+                    for(int i = 0; i != len; ++i) {
+                        // two distant ranges to race on directory node installation too
+                        long n = rnd.nextInt(3 * len) + (seed % 2 == 0 ? 0 : 1l << 40);
+                        if (!bm.getAndSet(n, true)) {
+                            marked.incrementAndGet();
+                        }
+                    }
+                }
+            };
+        }
+        for(Thread t: threads) {
+            t.start();
+        }
+        for(Thread t: threads) {
+            t.join();
+        }
+        assertThat(bm.countOnes()).isEqualTo(marked.get());
+        long count = 0;
+        for(long n = bm.seekOne(0); n >= 0; n = bm.seekOne(n + 1)) {
+            ++count;
+        }
+        assertThat(count).isEqualTo(marked.get());
+    }
+
+    private void verifySeekOverGaps(BitMap pbm) {
+        Random rnd = new Random(1);
+        TreeSet<Long> ref = new TreeSet<Long>();
+        for(int i = 0; i != 2000; ++i) {
+            long n = rnd.nextInt(64 << 20);
+            pbm.set(n, true);
+            ref.add(n);
+        }
+        // clear some bits to leave empty words and pages behind
+        for(int i = 0; i != 1000; ++i) {
+            long n = ref.first() + rnd.nextInt(64 << 20);
+            Long c = ref.ceiling(n);
+            if (c != null) {
+                pbm.set(c, false);
+                ref.remove(c);
+            }
+        }
+        for(int i = 0; i != 10000; ++i) {
+            long n = rnd.nextInt(65 << 20);
+            Long c = ref.ceiling(n);
+            assertThat(pbm.seekOne(n)).isEqualTo(c == null ? -1 : c.longValue());
+        }
+        long n = 0;
+        for(long e: ref) {
+            n = pbm.seekOne(n);
+            assertThat(n).isEqualTo(e);
+            ++n;
+        }
+        assertThat(pbm.seekOne(n)).isEqualTo(-1);
+    }
+
+    @Test
+    public void container_bitmap_random_ops() {
+        Random rnd = new Random(1);
+        for(int round = 0; round != 20; ++round) {
+            BitSet ra = randomBits(rnd);
+            BitSet rb = randomBits(rnd);
+            BitMap a = toContainerBitMap(ra);
+            BitMap b = toContainerBitMap(rb);
+            verifySame(ra, a);
+            verifySame(rb, b);
+
+            // single bit updates on optimized chunks
+            for(int i = 0; i != 200; ++i) {
+                int n = ra.nextSetBit(rnd.nextInt(1 << 20));
+                if (n >= 0) {
+                    ra.clear(n);
+                    a.set(n, false);
+                    ra.set(n + 1);
+                    a.set(n + 1, true);
+                }
+            }
+            verifySame(ra, a);
+
+            switch(round % 4) {
+            case 0:
+                ra.or(rb);
+                a.add(b);
+                break;
+            case 1:
+                ra.and(rb);
+                a.mult(b);
+                break;
+            case 2:
+                ra.andNot(rb);
+                a.sub(b);
+                break;
+            default:
+                BitSet ro = (BitSet) ra.clone();
+                ro.and(rb);
+                ra.or(rb);
+                BitMap o = BitMaps.containerBitMap();
+                a.addWithOverflow(b, o);
+                verifySame(ro, o);
+            }
+            verifySame(ra, a);
+            verifySame(rb, b);
+        }
+    }
+
+    @Test
+    public void container_bitmap_chunk_end() {
+        BitSet sparse = new BitSet();
+        sparse.set(0);
+        sparse.set(65535);
+        sparse.set(65536 + 65535);
+        BitSet dense = new BitSet();
+        for(int i = 0; i < 65536; i += 2) {
+            dense.set(i);
+        }
+        dense.set(65535);
+        BitSet runs = new BitSet();
+        runs.set(0);
+        runs.set(60000, 65536);
+        BitSet[] shapes = {sparse, dense, runs};
+        for(BitSet ra: shapes) {
+            for(BitSet rb: shapes) {
+                BitMap a = toContainerBitMap(ra);
+                BitMap b = toContainerBitMap(rb);
+                BitMap o = BitMaps.containerBitMap();
+                a.addWithOverflow(b, o);
+                BitSet ro = (BitSet) ra.clone();
+                ro.and(rb);
+                BitSet ru = (BitSet) ra.clone();
+                ru.or(rb);
+                verifySame(ro, o);
+                verifySame(ru, a);
+
+                a = toContainerBitMap(ra);
+                a.sub(b);
+                BitSet rs = (BitSet) ra.clone();
+                rs.andNot(rb);
+                verifySame(rs, a);
+            }
+        }
+    }
+
+    @Test
+    public void compressed_bitmap_random_ops() {
+        Random rnd = new Random(1);
+        for(int round = 0; round != 20; ++round) {
+            BitSet ra = randomBits(rnd);
+            BitSet rb = randomBits(rnd);
+            CompressedBitMap a = BitMaps.compress(toPagedBitMap(ra));
+            CompressedBitMap b = BitMaps.compress(toContainerBitMap(rb));
+            verifySame(ra, a);
+            verifySame(rb, b);
+
+            BitSet r = (BitSet) ra.clone();
+            r.and(rb);
+            verifySame(r, a.and(b));
+            r = (BitSet) ra.clone();
+            r.or(rb);
+            verifySame(r, a.or(b));
+            r = (BitSet) ra.clone();
+            r.andNot(rb);
+            verifySame(r, a.andNot(b));
+            r = (BitSet) rb.clone();
+            r.andNot(ra);
+            verifySame(r, b.andNot(a));
+            r = (BitSet) ra.clone();
+            r.xor(rb);
+            verifySame(r, a.xor(b));
+        }
+    }
+
+    @Test
+    public void compressed_bitmap_runs() {
+        BitMap pbm = new PagedBitMap();
+        BitSet ref = new BitSet();
+        for(int i = 0; i != 1 << 20; ++i) {
+            pbm.set(i + 100, true);
+        }
+        ref.set(100, 100 + (1 << 20));
+        pbm.set(5 << 20, true);
+        ref.set(5 << 20);
+        CompressedBitMap cbm = BitMaps.compress(pbm);
+        assertThat(cbm.sizeInWords()).isLessThan(10);
+        verifySame(ref, cbm);
+    }
+
+    @Test
+    public void compressed_bitmap_seek_far_past_last_marker() {
+        BitMap pbm = new PagedBitMap();
+        pbm.set(5, true);
+        pbm.set(200, true);
+        CompressedBitMap cbm = BitMaps.compress(pbm);
+        assertThat(cbm.seekOne(0)).isEqualTo(5);
+        assertThat(cbm.seekOne(6)).isEqualTo(200);
+        assertThat(cbm.seekOne(201)).isEqualTo(-1);
+        assertThat(cbm.seekOne((1l << 37) + 192)).isEqualTo(-1);
+        assertThat(cbm.seekOne(1l << 38)).isEqualTo(-1);
+        assertThat(cbm.seekOne(Long.MAX_VALUE)).isEqualTo(-1);
+    }
+
+    @Test
+    public void parallel_bulk_ops() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Random rnd = new Random(1);
+            for(int round = 0; round != 16; ++round) {
+                boolean sparse = round % 8 >= 4;
+                BitSet ra = randomBits(rnd);
+                BitSet rb = randomBits(rnd);
+                PagedBitMap a = new PagedBitMap(sparse);
+                PagedBitMap b = new PagedBitMap(sparse);
+                a.add(toPagedBitMap(ra));
+                b.add(toPagedBitMap(rb));
+
+                switch(round % 4) {
+                case 0:
+                    ra.or(rb);
+                    a.add(b, executor);
+                    break;
+                case 1:
+                    ra.and(rb);
+                    a.mult(b, executor);
+                    break;
+                case 2:
+                    ra.andNot(rb);
+                    a.sub(b, executor);
+                    break;
+                default:
+                    BitSet ro = (BitSet) ra.clone();
+                    ro.and(rb);
+                    ra.or(rb);
+                    PagedBitMap o = new PagedBitMap(sparse);
+                    a.addWithOverflow(b, o, executor);
+                    verifySame(ro, o);
+                }
+                verifySame(ra, a);
+                verifySame(rb, b);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallel_add_with_overflow_over_2_32_bits() {
+        // two dense maps of 2^32 bits take 1GiB
+        Assume.assumeTrue(Runtime.getRuntime().maxMemory() > (5l << 28));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            long n = (1l << 32) + 65536;
+            PagedBitMap a = new PagedBitMap();
+            PagedBitMap b = new PagedBitMap();
+            PagedBitMap o = new PagedBitMap();
+            a.set(5, true);
+            b.setRange(0, n);
+            a.addWithOverflow(b, o, executor);
+            b = null;
+            assertThat(a.countOnes()).isEqualTo(n);
+            assertThat(o.countOnes()).isEqualTo(1);
+            assertThat(o.seekOne(0)).isEqualTo(5);
+            assertThat(o.seekOne(6)).isEqualTo(-1);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void count_ones_tracking() {
+        Random rnd = new Random(1);
+        BitSet ref = new BitSet();
+        PagedBitMap pbm = new PagedBitMap(true);
+        for(int i = 0; i != 100000; ++i) {
+            int n = rnd.nextInt(1 << 20);
+            boolean v = rnd.nextInt(3) != 0;
+            if (i % 2 == 0) {
+                pbm.set(n, v);
+            }
+            else {
+                assertThat(pbm.getAndSet(n, v)).isEqualTo(ref.get(n));
+            }
+            ref.set(n, v);
+            if (i % 10000 == 0) {
+                assertThat(pbm.countOnes()).isEqualTo(ref.cardinality());
+            }
+        }
+        BitSet other = randomBits(rnd);
+        // bitwise fallback for non paged operand
+        pbm.sub(toContainerBitMap(other));
+        ref.andNot(other);
+        verifySame(ref, pbm);
+        pbm.release();
+        assertThat(pbm.countOnes()).isEqualTo(0);
+    }
+
+    @Test
+    public void rank_and_select() {
+        Random rnd = new Random(1);
+        for(int round = 0; round != 4; ++round) {
+            BitSet ref = randomBits(rnd);
+            PagedBitMap pbm = new PagedBitMap(round % 2 == 0);
+            pbm.add(toPagedBitMap(ref));
+            verifyRankAndSelect(ref, pbm, rnd);
+
+            // index should catch up with mutations
+            for(int i = 0; i != 1000; ++i) {
+                int n = rnd.nextInt(1 << 20);
+                boolean v = rnd.nextBoolean();
+                pbm.set(n, v);
+                ref.set(n, v);
+            }
+            verifyRankAndSelect(ref, pbm, rnd);
+            BitSet other = randomBits(rnd);
+            pbm.sub(toPagedBitMap(other));
+            ref.andNot(other);
+            verifyRankAndSelect(ref, pbm, rnd);
+        }
+    }
+
+    private void verifyRankAndSelect(BitSet ref, PagedBitMap pbm, Random rnd) {
+        int card = ref.cardinality();
+        for(int i = 0; i != 2000; ++i) {
+            int n = rnd.nextInt((1 << 20) + 1000);
+            assertThat(pbm.rank(n)).isEqualTo(ref.get(0, n).cardinality());
+        }
+        int k = 0;
+        for(int i = ref.nextSetBit(0); i >= 0; i = ref.nextSetBit(i + 1)) {
+            if (k % 97 == 0 || k == card - 1) {
+                assertThat(pbm.select(k)).isEqualTo(i);
+                assertThat(pbm.rank(i)).isEqualTo(k);
+            }
+            ++k;
+        }
+        assertThat(pbm.select(card)).isEqualTo(-1);
+    }
+
+    @Test
+    public void primitive_iteration() {
+        Random rnd = new Random(1);
+        BitSet ref = randomBits(rnd);
+        BitMap concurrent = BitMaps.concurrentBitMap();
+        concurrent.add(toPagedBitMap(ref));
+        verifyPrimitiveIteration(ref, toPagedBitMap(ref));
+        verifyPrimitiveIteration(ref, toContainerBitMap(ref));
+        verifyPrimitiveIteration(ref, concurrent);
+        verifyPrimitiveIteration(new BitSet(), new PagedBitMap());
+    }
+
+    private void verifyPrimitiveIteration(final BitSet ref, BitMap bm) {
+        final AtomicLong visited = new AtomicLong();
+        bm.forEachOne(new BitVisitor() {
+            int next = ref.nextSetBit(0);
+
+            @Override
+            public void visit(long index) {
+                assertThat(index).isEqualTo(next);
+                next = ref.nextSetBit(next + 1);
+                visited.incrementAndGet();
+            }
+        });
+        assertThat(visited.get()).isEqualTo(ref.cardinality());
+
+        BitCursor cursor = bm.cursor();
+        for(int i = ref.nextSetBit(0); i >= 0; i = ref.nextSetBit(i + 1)) {
+            assertThat(cursor.next()).isEqualTo(i);
+        }
+        assertThat(cursor.next()).isEqualTo(-1);
+        assertThat(cursor.next()).isEqualTo(-1);
+
+        // mix single and batch reads
+        cursor = bm.cursor();
+        long[] buffer = new long[37];
+        int i = ref.nextSetBit(0);
+        while(true) {
+            int n = cursor.next(buffer);
+            if (n == 0) {
+                break;
+            }
+            for(int j = 0; j != n; ++j) {
+                assertThat(buffer[j]).isEqualTo(i);
+                i = ref.nextSetBit(i + 1);
+            }
+            long next = cursor.next();
+            assertThat(next).isEqualTo(i);
+            if (i < 0) {
+                break;
+            }
+            i = ref.nextSetBit(i + 1);
+        }
+        assertThat(i).isEqualTo(-1);
+        assertThat(cursor.next(buffer)).isEqualTo(0);
+    }
+
+    @Test
+    public void page_reclamation() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Random rnd = new Random(1);
+            PagedBitMap[] maps = {new PagedBitMap(), new PagedBitMap(true), (PagedBitMap) BitMaps.offHeapBitMap()};
+            for(PagedBitMap pbm: maps) {
+                BitSet ref = randomBits(rnd);
+                pbm.add(toPagedBitMap(ref));
+                // clear whole pages bit by bit
+                for(int i = ref.nextSetBit(0); i >= 0 && i < 1 << 18; i = ref.nextSetBit(i + 1)) {
+                    pbm.set(i, false);
+                }
+                ref.clear(0, 1 << 18);
+                verifySame(ref, pbm);
+
+                BitSet other = randomBits(rnd);
+                PagedBitMap that = new PagedBitMap();
+                that.add(toPagedBitMap(other));
+                pbm.sub(that, executor);
+                ref.andNot(other);
+                verifySame(ref, pbm);
+
+                pbm.sub(toPagedBitMap(ref));
+                ref.clear();
+                verifySame(ref, pbm);
+                pbm.compact();
+                verifySame(ref, pbm);
+
+                pbm.set(5 << 24, true);
+                ref.set(5 << 24);
+                pbm.compact();
+                verifySame(ref, pbm);
+                assertThat(pbm.seekOne(0)).isEqualTo(5 << 24);
+                pbm.release();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void range_ops() {
+        Random rnd = new Random(1);
+        BitMap[] maps = {new PagedBitMap(), new PagedBitMap(true), BitMaps.offHeapBitMap(), BitMaps.containerBitMap()};
+        for(BitMap bm: maps) {
+            BitSet ref = randomBits(rnd);
+            bm.add(toPagedBitMap(ref));
+            for(int i = 0; i != 200; ++i) {
+                int from = rnd.nextInt(1 << 20);
+                int to = from + rnd.nextInt(i % 10 == 0 ? 1 << 18 : 200);
+                if (rnd.nextBoolean()) {
+                    bm.setRange(from, to);
+                    ref.set(from, to);
+                }
+                else {
+                    bm.clearRange(from, to);
+                    ref.clear(from, to);
+                }
+                int a = rnd.nextInt(1 << 20);
+                int b = a + rnd.nextInt(1 << 16);
+                assertThat(bm.countOnes(a, b)).isEqualTo(ref.get(a, b).cardinality());
+                assertThat(bm.seekZero(a)).isEqualTo(ref.nextClearBit(a));
+                assertThat(bm.seekZero(from)).isEqualTo(ref.nextClearBit(from));
+            }
+            verifySame(ref, bm);
+        }
+    }
+
+    @Test
+    public void mult_clears_bits_absent_in_that() {
+        Random rnd = new Random(1);
+        for(int round = 0; round != 12; ++round) {
+            BitSet ra = randomBits(rnd);
+            BitSet rb = randomBits(rnd);
+            // make sure some pages of this have no counterpart
+            ra.set(5 << 20, (5 << 20) + 5000);
+            BitMap a;
+            switch(round % 4) {
+            case 0: a = new PagedBitMap(); break;
+            case 1: a = new PagedBitMap(true); break;
+            case 2: a = BitMaps.offHeapBitMap(); break;
+            default: a = BitMaps.wrap(new BitSet());
+            }
+            a.add(toPagedBitMap(ra));
+            BitMap b;
+            switch(round / 4) {
+            case 0: b = toPagedBitMap(rb); break;
+            case 1: b = BitMaps.concurrentBitMap(); b.add(toPagedBitMap(rb)); break;
+            default: b = toContainerBitMap(rb);
+            }
+            a.mult(b);
+            ra.and(rb);
+            verifySame(ra, a);
+            assertThat(a.seekOne(5 << 20)).isEqualTo(ra.nextSetBit(5 << 20));
+        }
+    }
+
+    @Test
+    public void n_ary_ops() {
+        Random rnd = new Random(1);
+        List<BitSet> refs = new ArrayList<BitSet>();
+        List<BitMap> maps = new ArrayList<BitMap>();
+        BitSet common = randomBits(rnd);
+        for(int i = 0; i != 7; ++i) {
+            BitSet ref = randomBits(rnd);
+            // keep intersection non-trivial
+            ref.or(common);
+            ref.clear(rnd.nextInt(1 << 20), 1 << 20);
+            refs.add(ref);
+            switch(i % 4) {
+            case 0: maps.add(toPagedBitMap(ref)); break;
+            case 1: BitMap s = BitMaps.sparseBitMap(); s.add(toPagedBitMap(ref)); maps.add(s); break;
+            case 2: maps.add(toContainerBitMap(ref)); break;
+            default: maps.add(BitMaps.wrap((BitSet) ref.clone()));
+            }
+        }
+        BitSet or = new BitSet();
+        BitSet and = (BitSet) refs.get(0).clone();
+        for(BitSet ref: refs) {
+            or.or(ref);
+            and.and(ref);
+        }
+        verifySame(or, BitMaps.or(maps));
+        verifySame(and, BitMaps.and(maps));
+        for(int k = 1; k <= maps.size() + 1; ++k) {
+            BitSet expected = new BitSet();
+            for(int i = or.nextSetBit(0); i >= 0; i = or.nextSetBit(i + 1)) {
+                int c = 0;
+                for(BitSet ref: refs) {
+                    c += ref.get(i) ? 1 : 0;
+                }
+                expected.set(i, c >= k);
+            }
+            verifySame(expected, BitMaps.threshold(k, maps));
+        }
+        verifySame(new BitSet(), BitMaps.and(new ArrayList<BitMap>()));
+        verifySame(new BitSet(), BitMaps.or(new ArrayList<BitMap>()));
+    }
+
+    @Test
+    public void frozen_bitmap() {
+        Random rnd = new Random(5);
+        BitSet ref = randomBits(rnd);
+        ref.set(3 << 20);
+        PagedBitMap dense = (PagedBitMap) toPagedBitMap(ref);
+        PagedBitMap sparse = new PagedBitMap(true);
+        sparse.add(dense);
+        FrozenBitMap frozen = dense.freeze();
+        verifySame(ref, frozen);
+        verifySame(ref, sparse.freeze());
+        verifySame(ref, FrozenBitMap.valueOf(toContainerBitMap(ref)));
+        verifySame(ref, frozen.thaw());
+        assertThat(frozen.countOnes()).isEqualTo(ref.cardinality());
+        verifySame(new BitSet(), new PagedBitMap().freeze());
+
+        // snapshot does not follow source
+        dense.set(ref.nextClearBit(0), true);
+        verifySame(ref, frozen);
+
+        PagedBitMap copy = new PagedBitMap();
+        copy.add(frozen);
+        copy.mult(frozen);
+        verifySame(ref, copy);
+    }
+
+    @Test
+    public void snapshot_copy_on_write() {
+        verifySnapshot(new PagedBitMap(false));
+        verifySnapshot(new PagedBitMap(true));
+    }
+
+    @Test
+    public void snapshot_concurrent_readers() throws Exception {
+        for(boolean sparse: new boolean[] {false, true}) {
+            Random rnd = new Random(29);
+            // many rank blocks, so index rebuild takes a while
+            final BitSet ref = new BitSet();
+            for(int i = 0; i != 400000; ++i) {
+                ref.set(rnd.nextInt(1 << 27));
+            }
+            PagedBitMap bitmap = new PagedBitMap(sparse);
+            bitmap.add(BitMaps.wrap(ref));
+            // make index of source partially stale
+            bitmap.rank(1 << 20);
+            bitmap.set(1 << 19, !ref.get(1 << 19));
+            ref.flip(1 << 19);
+            final int[] positions = new int[ref.cardinality()];
+            for(int i = 0, n = ref.nextSetBit(0); n >= 0; n = ref.nextSetBit(n + 1)) {
+                positions[i++] = n;
+            }
+
+            for(int round = 0; round != 20; ++round) {
+                final PagedBitMap snapshot = bitmap.snapshot();
+                final CyclicBarrier barrier = new CyclicBarrier(8);
+                List<Callable<Void>> readers = new ArrayList<Callable<Void>>();
+                for(int t = 0; t != 8; ++t) {
+                    final int seed = t;
+                    // expected values are computed upfront, so readers race on index rebuild
+                    Random r = new Random(seed);
+                    final int[] queries = new int[10];
+                    final int[] ranks = new int[10];
+                    for(int i = 0; i != queries.length; ++i) {
+                        queries[i] = r.nextInt(1 << 27);
+                        int p = Arrays.binarySearch(positions, queries[i]);
+                        ranks[i] = p >= 0 ? p : -(p + 1);
+                    }
+                    readers.add(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            // all readers hit fresh snapshot at once
+                            barrier.await();
+                            for(int i = 0; i != queries.length; ++i) {
+                                assertThat(snapshot.rank(queries[i])).isEqualTo(ranks[i]);
+                                assertThat(snapshot.select(ranks[i])).isEqualTo(ref.nextSetBit(queries[i]));
+                                assertThat(snapshot.countOnes()).isEqualTo(positions.length);
+                            }
+                            return null;
+                        }
+                    });
+                }
+                ExecutorService executor = Executors.newFixedThreadPool(8);
+                try {
+                    for(Future<Void> f: executor.invokeAll(readers)) {
+                        f.get();
+                    }
+                }
+                finally {
+                    executor.shutdown();
+                }
+            }
+        }
+    }
+
+    private void verifySnapshot(PagedBitMap bitmap) {
+        Random rnd = new Random(7);
+        BitSet ref = randomBits(rnd);
+        bitmap.add(toPagedBitMap(ref));
+
+        PagedBitMap snapshot = bitmap.snapshot();
+        BitSet snapshotRef = (BitSet) ref.clone();
+        verifySame(snapshotRef, snapshot);
+
+        // writes to source are not visible in snapshot
+        BitSet other = randomBits(rnd);
+        for(int i = 0; i != 1000; ++i) {
+            int n = rnd.nextInt(1 << 20);
+            bitmap.set(n, !ref.get(n));
+            ref.flip(n);
+        }
+        bitmap.sub(toPagedBitMap(other));
+        ref.andNot(other);
+        bitmap.clearRange(1 << 18, 1 << 19);
+        ref.clear(1 << 18, 1 << 19);
+        verifySame(ref, bitmap);
+        verifySame(snapshotRef, snapshot);
+
+        // bulk page operations copy shared pages too
+        PagedBitMap second = bitmap.snapshot();
+        BitSet secondRef = (BitSet) ref.clone();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            bitmap.mult(toPagedBitMap(other), executor);
+            ref.and(other);
+            bitmap.add(toPagedBitMap(snapshotRef), executor);
+            ref.or(snapshotRef);
+        }
+        finally {
+            executor.shutdown();
+        }
+        verifySame(ref, bitmap);
+        verifySame(secondRef, second);
+
+        // snapshot itself is writable and does not affect source
+        snapshot.setRange(0, 1 << 20);
+        snapshotRef.set(0, 1 << 20);
+        verifySame(snapshotRef, snapshot);
+        verifySame(ref, bitmap);
+        verifySame(secondRef, second);
+    }
+
+    @Test
+    public void bit_counter() {
+        Random rnd = new Random(11);
+        int[] counts = new int[1 << 20];
+        BitCounter counter = new BitCounter();
+        BitCounter denseCounter = new BitCounter(false);
+        for(int i = 0; i != 11; ++i) {
+            BitSet ref = randomBits(rnd);
+            ref.clear(rnd.nextInt(1 << 20), 1 << 20);
+            for(int n = ref.nextSetBit(0); n >= 0; n = ref.nextSetBit(n + 1)) {
+                counts[n]++;
+            }
+            counter.add(i % 2 == 0 ? toPagedBitMap(ref) : BitMaps.wrap(ref));
+            denseCounter.add(toContainerBitMap(ref));
+        }
+        int max = 0;
+        for(int n = 0; n != counts.length; ++n) {
+            max = Math.max(max, counts[n]);
+        }
+        assertThat(counter.sliceCount()).isEqualTo(32 - Integer.numberOfLeadingZeros(max));
+        for(int k = 1; k <= 12; ++k) {
+            BitSet atLeast = new BitSet();
+            BitSet exactly = new BitSet();
+            for(int n = 0; n != counts.length; ++n) {
+                atLeast.set(n, counts[n] >= k);
+                exactly.set(n, counts[n] == k);
+            }
+            verifySame(atLeast, counter.atLeast(k));
+            verifySame(exactly, counter.exactly(k));
+            verifySame(atLeast, denseCounter.atLeast(k));
+            if (k == max) {
+                verifySame(exactly, counter.top());
+            }
+        }
+        assertThat(counter.maxCount()).isEqualTo(max);
+        for(int i = 0; i != 1000; ++i) {
+            int n = rnd.nextInt(counts.length);
+            assertThat(counter.get(n)).isEqualTo(counts[n]);
+        }
+        long total = 0;
+        for(int s = 0; s != counter.sliceCount(); ++s) {
+            total += counter.slice(s).countOnes() << s;
+        }
+        long expectedTotal = 0;
+        for(int c: counts) {
+            expectedTotal += c;
+        }
+        assertThat(total).isEqualTo(expectedTotal);
+    }
+
+    @Test
+    public void bit_sliced_index() {
+        Random rnd = new Random(13);
+        int size = 1 << 18;
+        long[] values = new long[size];
+        BitSlicedIndex index = new BitSlicedIndex();
+        for(int i = 0; i != size; ++i) {
+            values[i] = -1;
+        }
+        for(int i = 0; i != 50000; ++i) {
+            int n = rnd.nextInt(size);
+            long v = rnd.nextInt(4) == 0 ? rnd.nextInt(1 << 20) : rnd.nextInt(100);
+            values[n] = v;
+            index.set(n, v);
+        }
+        for(int i = 0; i != 5000; ++i) {
+            int n = rnd.nextInt(size);
+            values[n] = -1;
+            index.remove(n);
+        }
+        BitSet filter = randomBits(rnd);
+        long count = 0;
+        long sum = 0;
+        long filteredSum = 0;
+        long min = -1;
+        long max = -1;
+        long filteredMax = -1;
+        for(int n = 0; n != size; ++n) {
+            long v = values[n];
+            assertThat(index.get(n)).isEqualTo(v);
+            if (v >= 0) {
+                ++count;
+                sum += v;
+                min = min < 0 ? v : Math.min(min, v);
+                max = Math.max(max, v);
+                if (filter.get(n)) {
+                    filteredSum += v;
+                    filteredMax = Math.max(filteredMax, v);
+                }
+            }
+        }
+        assertThat(index.count()).isEqualTo(count);
+        assertThat(index.sum()).isEqualTo(sum);
+        assertThat(index.sum(BitMaps.wrap(filter))).isEqualTo(filteredSum);
+        assertThat(index.min()).isEqualTo(min);
+        assertThat(index.max()).isEqualTo(max);
+        assertThat(index.max(toPagedBitMap(filter))).isEqualTo(filteredMax);
+        assertThat(index.min(new PagedBitMap())).isEqualTo(-1);
+
+        long[] probes = {-1, 0, 1, 50, 99, 100, 4096, (1 << 20) - 1, 1 << 20, Long.MAX_VALUE};
+        for(long a: probes) {
+            BitSet lt = new BitSet();
+            BitSet le = new BitSet();
+            BitSet gt = new BitSet();
+            BitSet ge = new BitSet();
+            BitSet eq = new BitSet();
+            BitSet between = new BitSet();
+            for(int n = 0; n != size; ++n) {
+                long v = values[n];
+                if (v >= 0) {
+                    lt.set(n, v < a);
+                    le.set(n, v <= a);
+                    gt.set(n, v > a);
+                    ge.set(n, v >= a);
+                    eq.set(n, v == a);
+                    between.set(n, v >= a && v <= 2 * a + 10);
+                }
+            }
+            verifySame(lt, index.lessThan(a));
+            verifySame(le, index.lessOrEqual(a));
+            verifySame(gt, index.greaterThan(a));
+            verifySame(ge, index.greaterOrEqual(a));
+            verifySame(eq, index.equalTo(a));
+            verifySame(between, index.between(a, 2 * a + 10));
+        }
+    }
+
+    @Test
+    public void bit_set_interop() {
+        Random rnd = new Random(19);
+        BitSet a = randomBits(rnd);
+        BitSet b = randomBits(rnd);
+        b.clear(1 << 19, 1 << 20);
+        BitSet c = randomBits(rnd);
+
+        verifySame(a, BitMaps.valueOf(a));
+        assertThat(BitMaps.toBitSet(toPagedBitMap(a))).isEqualTo(a);
+        assertThat(BitMaps.toBitSet(toContainerBitMap(a))).isEqualTo(a);
+
+        for(BitMap other: new BitMap[] {BitMaps.wrap((BitSet) b.clone()), toPagedBitMap(b), toContainerBitMap(b)}) {
+            BitSet ref = (BitSet) a.clone();
+            BitMap bs = BitMaps.wrap((BitSet) a.clone());
+            bs.add(other);
+            ref.or(b);
+            verifySame(ref, bs);
+            bs.mult(BitMaps.wrap((BitSet) c.clone()));
+            ref.and(c);
+            verifySame(ref, bs);
+            bs.sub(other);
+            ref.andNot(b);
+            verifySame(ref, bs);
+
+            BitSet overflowRef = (BitSet) ref.clone();
+            overflowRef.and(b);
+            PagedBitMap overflow = new PagedBitMap();
+            bs.addWithOverflow(other, overflow);
+            ref.or(b);
+            verifySame(ref, bs);
+            verifySame(overflowRef, overflow);
+        }
+
+        // paged bit map reads words of bit set
+        BitSet ref = (BitSet) a.clone();
+        PagedBitMap pbm = (PagedBitMap) toPagedBitMap(a);
+        pbm.add(BitMaps.wrap(b));
+        ref.or(b);
+        verifySame(ref, pbm);
+        pbm.mult(BitMaps.wrap(c));
+        ref.and(c);
+        verifySame(ref, pbm);
+        pbm.sub(BitMaps.wrap(b));
+        ref.andNot(b);
+        verifySame(ref, pbm);
+
+        BitMap bs = BitMaps.wrap(new BitSet());
+        assertThat(bs.getAndSet(10, true)).isFalse();
+        assertThat(bs.get(10)).isTrue();
+        assertThat(bs.getAndSet(10, false)).isTrue();
+        assertThat(bs.get(10)).isFalse();
+
+        // no bits past int range of bit set
+        bs.set(Integer.MAX_VALUE, true);
+        assertThat(bs.seekOne(Integer.MAX_VALUE)).isEqualTo(Integer.MAX_VALUE);
+        assertThat(bs.seekOne(1l << 31)).isEqualTo(-1);
+        assertThat(bs.seekOne(1l << 40)).isEqualTo(-1);
+        assertThat(bs.get(1l << 40)).isFalse();
+        assertThat(bs.seekZero(1l << 40)).isEqualTo(1l << 40);
+    }
+
+    @Test
+    public void page_kernels() {
+        Random rnd = new Random(23);
+        for(boolean sparse: new boolean[] {false, true}) {
+            // blocks of 64 words with varying number of non-zero words
+            BitSet[] refs = new BitSet[3];
+            PagedBitMap[] maps = new PagedBitMap[3];
+            for(int m = 0; m != 3; ++m) {
+                refs[m] = new BitSet();
+                maps[m] = new PagedBitMap(sparse);
+                for(int block = 0; block != 256; ++block) {
+                    int words = rnd.nextInt(65);
+                    for(int w = 0; w != words; ++w) {
+                        int n = (block << 12) + (rnd.nextInt(64) << 6) + rnd.nextInt(64);
+                        refs[m].set(n);
+                        maps[m].set(n, true);
+                    }
+                }
+            }
+            BitSet ref = (BitSet) refs[0].clone();
+            PagedBitMap map = maps[0];
+            map.add(maps[1]);
+            ref.or(refs[1]);
+            verifySame(ref, map);
+            assertThat(map.countOnes()).isEqualTo(ref.cardinality());
+            map.mult(maps[2]);
+            ref.and(refs[2]);
+            verifySame(ref, map);
+            assertThat(map.countOnes()).isEqualTo(ref.cardinality());
+            map.add(maps[1]);
+            ref.or(refs[1]);
+            map.sub(maps[2]);
+            ref.andNot(refs[2]);
+            verifySame(ref, map);
+            assertThat(map.countOnes()).isEqualTo(ref.cardinality());
+
+            BitSet overflowRef = (BitSet) refs[1].clone();
+            overflowRef.and(refs[2]);
+            overflowRef.or(ref);
+            maps[1].addWithOverflow(maps[2], maps[0]);
+            refs[1].or(refs[2]);
+            verifySame(refs[1], maps[1]);
+            verifySame(overflowRef, maps[0]);
+            assertThat(maps[0].countOnes()).isEqualTo(overflowRef.cardinality());
+            assertThat(maps[1].countOnes()).isEqualTo(refs[1].cardinality());
+        }
+    }
+
+    @Test
+    public void lazy_ops() {
+        Random rnd = new Random(3);
+        BitSet a = randomBits(rnd);
+        BitSet b = randomBits(rnd);
+        BitSet c = randomBits(rnd);
+        BitSet d = randomBits(rnd);
+        BitMap ma = toPagedBitMap(a);
+        BitMap mb = BitMaps.sparseBitMap();
+        mb.add(toPagedBitMap(b));
+        BitMap mc = toContainerBitMap(c);
+        BitMap md = BitMaps.wrap((BitSet) d.clone());
+
+        BitSet expected = (BitSet) a.clone();
+        expected.and(b);
+        BitSet cd = (BitSet) c.clone();
+        cd.andNot(d);
+        expected.or(cd);
+        BitMap view = BitMaps.lazy(ma).and(mb).or(BitMaps.lazy(mc).andNot(md));
+        verifySame(expected, view);
+        verifySame(expected, ((LazyBitMap) view).materialize());
+
+        BitSet xor = (BitSet) a.clone();
+        xor.xor(c);
+        verifySame(xor, BitMaps.lazy(ma).xor(mc));
+        verifySame(new BitSet(), BitMaps.lazy(ma).xor(ma));
+
+        // first matches are available without evaluating whole expression
+        assertThat(view.seekOne(0)).isEqualTo(expected.nextSetBit(0));
+        int mid = expected.nextSetBit(1 << 19);
+        assertThat(view.seekOne(1 << 19)).isEqualTo(mid);
+        assertThat(view.get(mid)).isTrue();
+
+        try {
+            view.set(0, true);
+            Assert.fail("Exception expected");
+        }
+        catch(UnsupportedOperationException e) {
+            // expected
+        }
+
+        // bit set has no bits past its range, other operand may have
+        PagedBitMap high = new PagedBitMap(true);
+        high.set(7, true);
+        high.set(1l << 40, true);
+        BitSet bs = new BitSet();
+        bs.set(7);
+        bs.set(100);
+        assertThat(BitMaps.lazy(high).and(BitMaps.wrap(bs)).seekOne(0)).isEqualTo(7);
+        assertThat(BitMaps.lazy(high).and(BitMaps.wrap(bs)).seekOne(8)).isEqualTo(-1);
+        assertThat(BitMaps.lazy(high).or(BitMaps.wrap(bs)).seekOne(101)).isEqualTo(1l << 40);
+        assertThat(BitMaps.lazy(high).andNot(BitMaps.wrap(bs)).seekOne(0)).isEqualTo(1l << 40);
+        assertThat(BitMaps.lazy(high).xor(BitMaps.wrap(bs)).seekOne(8)).isEqualTo(100);
+        assertThat(BitMaps.lazy(BitMaps.wrap(bs)).andNot(high).seekOne(0)).isEqualTo(100);
+        // bit set is read lazily, later changes are visible in view
+        BitMap live = BitMaps.lazy(high).or(BitMaps.wrap(bs));
+        bs.set(200);
+        assertThat(live.seekOne(101)).isEqualTo(200);
+        BitSlicedIndex index = new BitSlicedIndex();
+        index.set(7, 3);
+        index.set(1l << 40, 5);
+        assertThat(index.sum(BitMaps.wrap(bs))).isEqualTo(3);
+    }
+
+    private BitMap toPagedBitMap(BitSet bits) {
+        BitMap bm = new PagedBitMap();
+        for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            bm.set(i, true);
+        }
+        return bm;
+    }
+
+    private BitSet randomBits(Random rnd) {
+        BitSet bits = new BitSet();
+        // sparse, dense and run chunks
+        for(int i = 0; i != 2000; ++i) {
+            bits.set(rnd.nextInt(1 << 20));
+        }
+        int base = rnd.nextInt(4) << 16;
+        for(int i = 0; i != 30000; ++i) {
+            bits.set(base + rnd.nextInt(1 << 16));
+        }
+        int rs = rnd.nextInt(1 << 20);
+        bits.set(rs, rs + rnd.nextInt(1 << 18));
+        for(int i = 0; i != 100; ++i) {
+            bits.clear(rs + rnd.nextInt(1 << 18));
+        }
+        return bits;
+    }
+
+    private BitMap toContainerBitMap(BitSet bits) {
+        BitMap bm = BitMaps.containerBitMap();
+        for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            bm.set(i, true);
+        }
+        ((ContainerBitMap) bm).optimize();
+        return bm;
+    }
+
+    private void verifySame(BitSet expected, BitMap bm) {
+        assertThat(bm.countOnes()).isEqualTo(expected.cardinality());
+        long n = bm.seekOne(0);
+        for(int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+            assertThat(n).isEqualTo(i);
+            n = bm.seekOne(n + 1);
+        }
+        assertThat(n).isEqualTo(-1);
+        for(int i = 0; i < 1 << 20; i += 7) {
+            assertThat(bm.get(i)).isEqualTo(expected.get(i));
+        }
+    }
 }